@@ -0,0 +1,225 @@
+package nlpidentification;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A compact count of bigram frequencies. Bigrams are packed into an int key, which is stored alongside its count in open addressed primitive arrays, avoiding an object per bigram while counting.
+ * @author DominicWild
+ */
+public class BigramCounter {
+
+    private static final int DEFAULT_CAPACITY = 64;     //The starting number of slots, always a power of 2.
+    private int[] keys;             //The packed bigram held in each slot.
+    private int[] counts;           //The count of the bigram in each slot, 0 if the slot is empty.
+    private int size;               //The number of distinct bigrams counted.
+
+    /**
+     * Creates an empty counter.
+     */
+    public BigramCounter() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty counter with room for the passed number of slots.
+     * @param capacity The number of slots, rounded up to a power of 2.
+     */
+    public BigramCounter(int capacity) {
+        int slots = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.keys = new int[slots];
+        this.counts = new int[slots];
+        this.size = 0;
+    }
+
+    /**
+     * Packs a bigram into a single int key.
+     * @param c1 The first character of the bigram.
+     * @param c2 The second character of the bigram.
+     * @return The packed bigram.
+     */
+    public static int pack(char c1, char c2) {
+        return (c1 << 16) | c2;
+    }
+
+    /**
+     * The first character of a packed bigram.
+     * @param key The packed bigram.
+     * @return The first character.
+     */
+    public static char first(int key) {
+        return (char) (key >>> 16);
+    }
+
+    /**
+     * The second character of a packed bigram.
+     * @param key The packed bigram.
+     * @return The second character.
+     */
+    public static char second(int key) {
+        return (char) key;
+    }
+
+    /**
+     * Counts a bigram once, as emitted by a BigramScanner.
+     * @param c1 The first character of the bigram.
+     * @param c2 The second character of the bigram.
+     */
+    public void add(char c1, char c2) {
+        this.add(pack(c1, c2), 1);
+    }
+
+    /**
+     * Adds an amount onto the count of a bigram.
+     * @param key The packed bigram.
+     * @param amount The amount to add, must be positive.
+     */
+    public void add(int key, int amount) {
+        int slot = this.slotOf(key);
+        if (this.counts[slot] == 0) { //A new bigram.
+            this.keys[slot] = key;
+            this.counts[slot] = amount;
+            this.size++;
+            if (this.size * 2 > this.keys.length) { //Keep at most half of the slots full.
+                this.grow();
+            }
+        } else {
+            this.counts[slot] += amount;
+        }
+    }
+
+    /**
+     * Adds the counts of another counter onto this one.
+     * @param other The counter to add.
+     */
+    public void addAll(BigramCounter other) {
+        for (int slot = 0; slot < other.capacity(); slot++) {
+            if (other.countAt(slot) != 0) {
+                this.add(other.keyAt(slot), other.countAt(slot));
+            }
+        }
+    }
+
+    /**
+     * Adds the frequencies of BigramUnits onto this counter.
+     * @param units The units to add.
+     */
+    public void addAll(Collection<BigramUnit> units) {
+        for (BigramUnit unit : units) {
+            String bigram = unit.getBigram();
+            this.add(pack(bigram.charAt(0), bigram.charAt(1)), unit.getFreq());
+        }
+    }
+
+    /**
+     * Gets the count of a bigram.
+     * @param key The packed bigram.
+     * @return The count, 0 if it has not been counted.
+     */
+    public int get(int key) {
+        return this.counts[this.slotOf(key)];
+    }
+
+    /**
+     * Removes every count, keeping the slots allocated.
+     */
+    public void clear() {
+        Arrays.fill(this.counts, 0);
+        this.size = 0;
+    }
+
+    /**
+     * Creates an independent copy of this counter.
+     * @return The copy.
+     */
+    public BigramCounter copy() {
+        BigramCounter copy = new BigramCounter(this.keys.length);
+        System.arraycopy(this.keys, 0, copy.keys, 0, this.keys.length);
+        System.arraycopy(this.counts, 0, copy.counts, 0, this.counts.length);
+        copy.size = this.size;
+        return copy;
+    }
+
+    /**
+     * Creates a BigramUnit for every bigram counted.
+     * @return The units, in no particular order.
+     */
+    public ArrayList<BigramUnit> toUnits() {
+        ArrayList<BigramUnit> units = new ArrayList<>(this.size);
+        for (int slot = 0; slot < this.keys.length; slot++) {
+            if (this.counts[slot] != 0) {
+                BigramUnit unit = new BigramUnit(first(this.keys[slot]), second(this.keys[slot]));
+                unit.inc(this.counts[slot]);
+                units.add(unit);
+            }
+        }
+        return units;
+    }
+
+    /**
+     * The number of distinct bigrams counted.
+     * @return The number of bigrams.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * The number of slots, for iterating with keyAt and countAt.
+     * @return The number of slots.
+     */
+    public int capacity() {
+        return this.keys.length;
+    }
+
+    /**
+     * The packed bigram held in a slot.
+     * @param slot The slot to look at.
+     * @return The packed bigram, meaningless if the slot is empty.
+     */
+    public int keyAt(int slot) {
+        return this.keys[slot];
+    }
+
+    /**
+     * The count held in a slot.
+     * @param slot The slot to look at.
+     * @return The count, 0 if the slot is empty.
+     */
+    public int countAt(int slot) {
+        return this.counts[slot];
+    }
+
+    /**
+     * Finds the slot holding a key, or the empty slot it would be placed in.
+     * @param key The packed bigram.
+     * @return The slot.
+     */
+    private int slotOf(int key) {
+        int mask = this.keys.length - 1;
+        int hash = key * 0x9E3779B9; //Spread the characters across the slots.
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (this.counts[slot] != 0 && this.keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Doubles the number of slots, placing every bigram again.
+     */
+    private void grow() {
+        int[] oldKeys = this.keys;
+        int[] oldCounts = this.counts;
+        this.keys = new int[oldKeys.length * 2];
+        this.counts = new int[oldCounts.length * 2];
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldCounts[slot] != 0) {
+                int newSlot = this.slotOf(oldKeys[slot]);
+                this.keys[newSlot] = oldKeys[slot];
+                this.counts[newSlot] = oldCounts[slot];
+            }
+        }
+    }
+}
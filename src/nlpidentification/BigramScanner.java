@@ -0,0 +1,142 @@
+package nlpidentification;
+
+/**
+ * Scans a line in a single pass, counting its words and emitting its bigrams in the same loop.
+ * Words are separated by the same whitespace as a StringTokenizer, looked up in a table, as is the lower case of each character when case folding.
+ * @author DominicWild
+ */
+public class BigramScanner {
+
+    private static final boolean[] WHITESPACE = new boolean[128];           //Whether each ASCII character separates words.
+    private static final char[] LOWER_CASE = new char[Character.MAX_VALUE + 1];  //The lower case of every character.
+    private final boolean foldCase;         //Whether bigrams are emitted in lower case.
+    private boolean truncated;              //Whether the last line scanned had words beyond the word budget.
+
+    static {
+        for (char c : new char[]{' ', '\t', '\n', '\r', '\f'}) {
+            WHITESPACE[c] = true;
+        }
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            LOWER_CASE[c] = Character.toLowerCase((char) c);
+        }
+    }
+
+    /**
+     * Receives the bigrams emitted by a scan.
+     */
+    public interface BigramSink {
+
+        /**
+         * Receives a bigram.
+         * @param c1 The first character of the bigram.
+         * @param c2 The second character of the bigram.
+         */
+        void accept(char c1, char c2);
+    }
+
+    /**
+     * Creates a scanner that emits bigrams as they are written.
+     */
+    public BigramScanner() {
+        this(false);
+    }
+
+    /**
+     * Creates a scanner.
+     * @param foldCase Whether bigrams are emitted in lower case.
+     */
+    public BigramScanner(boolean foldCase) {
+        this.foldCase = foldCase;
+        this.truncated = false;
+    }
+
+    /**
+     * Scans a line, emitting every pair of adjacent characters for as many words as the budget allows.
+     * If the line has more words than the budget, scanning stops at the end of the last word within it, the whitespace after it is not emitted.
+     * @param line The line to scan.
+     * @param wordBudget The most words to scan.
+     * @param sink Receives each bigram.
+     * @return The number of words scanned.
+     */
+    public int scan(CharSequence line, int wordBudget, BigramSink sink) {
+        int length = line.length();
+        int words = 0;
+        boolean inWord = false;
+        int deferredFrom = words == wordBudget ? 0 : -1; //The first bigram held back as it follows the last word within the budget.
+        this.truncated = false;
+
+        for (int i = 0; i < length; i++) {
+            char c = line.charAt(i);
+            boolean space = isWhitespace(c);
+            if (!space && !inWord) { //A word starts.
+                if (words == wordBudget) {
+                    this.truncated = true;
+                    break;
+                }
+                words++;
+            }
+            inWord = !space;
+            if (space && words == wordBudget && deferredFrom < 0) {
+                deferredFrom = Math.max(i - 1, 0);
+            }
+            if (i > 0 && deferredFrom < 0) {
+                this.emit(line.charAt(i - 1), c, sink);
+            }
+        }
+        if (!this.truncated && deferredFrom >= 0) { //No more words followed, so the held back bigrams belong to the line.
+            for (int i = deferredFrom; i < length - 1; i++) {
+                this.emit(line.charAt(i), line.charAt(i + 1), sink);
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Whether the last line scanned had words beyond the word budget.
+     * @return True if scanning stopped before the end of the line.
+     */
+    public boolean isTruncated() {
+        return this.truncated;
+    }
+
+    /**
+     * Counts the words within a line.
+     * @param line The line to count.
+     * @return The number of words.
+     */
+    public static int countWords(CharSequence line) {
+        int words = 0;
+        boolean inWord = false;
+        for (int i = 0; i < line.length(); i++) {
+            boolean space = isWhitespace(line.charAt(i));
+            if (!space && !inWord) {
+                words++;
+            }
+            inWord = !space;
+        }
+        return words;
+    }
+
+    /**
+     * Whether a character separates words.
+     * @param c The character.
+     * @return True if it is whitespace.
+     */
+    public static boolean isWhitespace(char c) {
+        return c < WHITESPACE.length && WHITESPACE[c];
+    }
+
+    /**
+     * Emits a bigram, folding its case if needed.
+     * @param c1 The first character.
+     * @param c2 The second character.
+     * @param sink Receives the bigram.
+     */
+    private void emit(char c1, char c2, BigramSink sink) {
+        if (this.foldCase) {
+            sink.accept(LOWER_CASE[c1], LOWER_CASE[c2]);
+        } else {
+            sink.accept(c1, c2);
+        }
+    }
+}
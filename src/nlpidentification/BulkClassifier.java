@@ -0,0 +1,158 @@
+package nlpidentification;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.lang3.StringEscapeUtils;
+
+/**
+ * Classifies every file within a directory tree against a shared set of training sets.
+ * Each file is read and classified on its own thread, with a limit on how many bytes of files may be in flight at once, so that the job is bound by I/O rather than by threads.
+ * Files are streamed line by line rather than read whole, so a file larger than the limit takes every permit and runs alone without holding its bytes in memory. A file that is removed or cannot be read while the tree is walked is logged and skipped.
+ * @author DominicWild
+ */
+public class BulkClassifier {
+
+    private final NLPIdentification classifier;     //The classifier used to predict each file's language.
+    private final DataSet[] trainingSets;           //The training sets shared, read only, by every file.
+    private final int maxInFlightBytes;             //The limit on bytes of files being classified at once.
+    private final Semaphore inFlightBytes;          //Permits for each byte that may be in flight.
+
+    /**
+     * Creates a bulk classifier.
+     * @param classifier The classifier used to predict each file's language.
+     * @param maxInFlightBytes The limit on bytes of files being classified at once.
+     * @param trainingSets The training sets to classify files against.
+     */
+    public BulkClassifier(NLPIdentification classifier, int maxInFlightBytes, DataSet... trainingSets) {
+        if (maxInFlightBytes < 1) {
+            throw new IllegalArgumentException("At least one byte must be allowed in flight.");
+        }
+        this.classifier = classifier;
+        this.trainingSets = trainingSets;
+        this.maxInFlightBytes = maxInFlightBytes;
+        this.inFlightBytes = new Semaphore(maxInFlightBytes);
+    }
+
+    /**
+     * Classifies every regular file within a directory tree, writing a CSV manifest of the predicted language and distances of each file.
+     * @param root The root of the directory tree to classify.
+     * @param manifest The CSV manifest file to write.
+     * @return The number of files classified.
+     * @throws IOException If the tree could not be walked or the manifest could not be written.
+     */
+    public int classifyTree(Path root, Path manifest) throws IOException {
+        AtomicInteger classified = new AtomicInteger();
+        ExecutorService executor = newPerFileExecutor();
+
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(manifest))) {
+            writer.println(this.manifestHeader());
+            try {
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                        if (!attributes.isRegularFile()) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        int permits = (int) Math.min(attributes.size(), BulkClassifier.this.maxInFlightBytes); //Large files take every permit, so they can still run alone.
+                        try {
+                            BulkClassifier.this.inFlightBytes.acquire(permits); //Wait for room before reading any more.
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            return FileVisitResult.TERMINATE;
+                        }
+                        executor.execute(() -> {
+                            try {
+                                String row = BulkClassifier.this.classifyFile(file);
+                                synchronized (writer) {
+                                    writer.println(row);
+                                }
+                                classified.incrementAndGet();
+                            } catch (IOException ex) {
+                                Logger.getLogger(BulkClassifier.class.getName()).log(Level.SEVERE, "Error classifying " + file, ex);
+                            } finally {
+                                BulkClassifier.this.inFlightBytes.release(permits);
+                            }
+                        });
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException ex) { //Removed or made unreadable while the tree was walked.
+                        Logger.getLogger(BulkClassifier.class.getName()).log(Level.SEVERE, "Error classifying " + file, ex);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } finally {
+                executor.shutdown();
+                try {
+                    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        return classified.get();
+    }
+
+    /**
+     * Reads and classifies a single file.
+     * @param file The file to classify.
+     * @return The manifest row for the file.
+     * @throws IOException If the file could not be read.
+     */
+    private String classifyFile(Path file) throws IOException {
+        DataSet sample;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file), Charset.defaultCharset()))) {
+            sample = new DataSet(reader, file.toString(), null);
+        }
+        ArrayList<DistanceLabel> labels = this.classifier.distanceLabels(sample, this.trainingSets);
+        Language predicted = this.classifier.classifyLanguage(new ArrayList<>(labels)); //Classifying removes from the labels it is given.
+
+        StringBuilder row = new StringBuilder(StringEscapeUtils.escapeCsv(file.toString()));
+        row.append(',').append(predicted == null ? "Unknown" : predicted.toString());
+        for (DistanceLabel label : labels) {
+            row.append(',').append(label.formatDistance());
+        }
+        return row.toString();
+    }
+
+    /**
+     * Creates the header of the manifest, with a distance column per training set.
+     * @return The manifest header.
+     */
+    private String manifestHeader() {
+        StringBuilder header = new StringBuilder("File,Predicted");
+        for (DataSet trainSet : this.trainingSets) {
+            header.append(',').append(trainSet.getDataSetLanguage());
+        }
+        return header.toString();
+    }
+
+    /**
+     * Creates an executor that runs each task on its own thread. Virtual threads are used where the runtime has them (Java 21 onwards), otherwise a pool of platform threads is used.
+     * @return The executor.
+     */
+    private static ExecutorService newPerFileExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return Executors.newFixedThreadPool(4 * Runtime.getRuntime().availableProcessors());
+        }
+    }
+}
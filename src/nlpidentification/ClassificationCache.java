@@ -0,0 +1,262 @@
+package nlpidentification;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded cache of classification results, for text that is classified again and again such as signatures, headers and footers.
+ * Results are keyed by a hash of the text with its whitespace normalised. The least recently used result is evicted when the cache is full, results older than a maximum age are classified again, and every result is dropped when the training profiles or distance metric change.
+ * A result holds a second, independent hash of its text rather than the text itself, so the cache takes a few hundred bytes per result however long the texts are.
+ * @author DominicWild
+ */
+public class ClassificationCache {
+
+    private final NLPIdentification classifier;     //The classifier used when a result is not cached.
+    private final int maxEntries;                   //The most results held at once.
+    private final long maxAgeMillis;                //How long a result stays valid.
+    private final LinkedHashMap<Long, CachedResult> entries;    //Results by hash, in least recently used order.
+    private List<Object> classifiedAgainst;         //The metric and profiles the held results were classified against.
+    private long hits;                              //The number of results served from the cache.
+    private long misses;                            //The number of results that had to be classified.
+    private long evictions;                         //The number of results dropped for room or age.
+
+    /**
+     * Creates an empty cache.
+     * @param classifier The classifier used when a result is not cached.
+     * @param maxEntries The most results held at once.
+     * @param maxAgeMillis How long a result stays valid.
+     */
+    public ClassificationCache(NLPIdentification classifier, int maxEntries, long maxAgeMillis) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("The cache must hold at least one result.");
+        }
+        this.classifier = classifier;
+        this.maxEntries = maxEntries;
+        this.maxAgeMillis = maxAgeMillis;
+        this.entries = new LinkedHashMap<Long, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CachedResult> eldest) {
+                if (size() > ClassificationCache.this.maxEntries) {
+                    ClassificationCache.this.evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.classifiedAgainst = new ArrayList<>();
+    }
+
+    /**
+     * Predicts the language of a text, using the cached result where there is one.
+     * @param text The text to classify.
+     * @param training The training sets to classify the text against.
+     * @return The predicted language, null if it could not be decided.
+     */
+    public Language classify(String text, DataSet... training) {
+        return this.classifier.classifyLanguage(this.distanceLabels(text, training));
+    }
+
+    /**
+     * Calculates the distance of a text from each of the training sets, using the cached result where there is one.
+     * The text is measured with its whitespace normalised, whether or not it is cached.
+     * @param text The text to measure.
+     * @param training The training sets to measure the text against.
+     * @return A label for each training set, in the same order as the training sets.
+     */
+    public ArrayList<DistanceLabel> distanceLabels(String text, DataSet... training) {
+        String normalised = normalise(text);
+        long key = hash(normalised);
+        long check = checkHash(normalised);
+        List<Object> against = this.against(training);
+
+        synchronized (this) {
+            if (!against.equals(this.classifiedAgainst)) { //The profiles changed, so every held result may be wrong.
+                this.entries.clear();
+                this.classifiedAgainst = against;
+            }
+            CachedResult cached = this.entries.get(key);
+            if (cached != null && cached.check == check) {
+                if (System.currentTimeMillis() - cached.created <= this.maxAgeMillis) {
+                    this.hits++;
+                    return new ArrayList<>(cached.labels);
+                }
+                this.entries.remove(key);
+                this.evictions++;
+            }
+            this.misses++;
+        }
+
+        ArrayList<DistanceLabel> labels = this.measure(normalised, training); //Measured as normalised, so texts differing only in whitespace get the same result whichever comes first.
+        synchronized (this) {
+            if (against.equals(this.classifiedAgainst)) { //Unless the profiles changed while classifying.
+                this.entries.put(key, new CachedResult(check, new ArrayList<>(labels), System.currentTimeMillis()));
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * Measures the distance of a text from each training set, without the cache.
+     * @param text The text.
+     * @param training The training sets.
+     * @return A label for each training set.
+     */
+    private ArrayList<DistanceLabel> measure(String text, DataSet... training) {
+        try (BufferedReader reader = new BufferedReader(new StringReader(text))) {
+            return this.classifier.distanceLabels(new DataSet(reader, "cached text", null), training);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex); //Not expected when reading from a string.
+        }
+    }
+
+    public NLPIdentification getClassifier() {
+        return classifier;
+    }
+
+    /**
+     * Drops every cached result.
+     */
+    public synchronized void invalidate() {
+        this.entries.clear();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        long lookups = this.hits + this.misses;
+        return "Cache of " + this.entries.size() + " results: " + this.hits + " hits, " + this.misses + " misses ("
+                + (lookups == 0 ? 0 : Math.round(100.0 * this.hits / lookups)) + "% hit rate), " + this.evictions + " evictions";
+    }
+
+    /**
+     * Identifies what results were classified against, being the distance metric and the profile of each training set. Profiles never change once ranked, so a different profile object means a different profile.
+     * @param training The training sets.
+     * @return The metric followed by each profile.
+     */
+    private List<Object> against(DataSet... training) {
+        List<Object> against = new ArrayList<>();
+        against.add(this.classifier.getDistanceMetric());
+        for (DataSet trainSet : training) {
+            against.add(new Identity(trainSet.getProfile()));
+        }
+        return against;
+    }
+
+    /**
+     * Normalises the whitespace of a text, trimming each line, joining runs of spaces and tabs into a single space and dropping empty lines.
+     * @param text The text.
+     * @return The normalised text.
+     */
+    public static String normalise(String text) {
+        StringBuilder normalised = new StringBuilder(text.length());
+        boolean space = false;      //Whether a space is waiting to be written before the next character.
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r') {
+                if (normalised.length() > 0 && normalised.charAt(normalised.length() - 1) != '\n') {
+                    normalised.append('\n');
+                }
+                space = false;
+            } else if (Character.isWhitespace(c)) {
+                space = normalised.length() > 0 && normalised.charAt(normalised.length() - 1) != '\n';
+            } else {
+                if (space) {
+                    normalised.append(' ');
+                    space = false;
+                }
+                normalised.append(c);
+            }
+        }
+        if (normalised.length() > 0 && normalised.charAt(normalised.length() - 1) == '\n') {
+            normalised.setLength(normalised.length() - 1);
+        }
+        return normalised.toString();
+    }
+
+    /**
+     * The 64 bit FNV-1a hash of a text.
+     * @param text The text.
+     * @return The hash.
+     */
+    public static long hash(String text) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * A second 64 bit hash of a text, independent of hash(), which tells apart texts that share a key. Two texts would have to collide on both hashes to be confused.
+     * @param text The text.
+     * @return The hash.
+     */
+    public static long checkHash(String text) {
+        long hash = 0x9e3779b97f4a7c15L;
+        for (int i = 0; i < text.length(); i++) {
+            hash = (hash + text.charAt(i)) * 0xbf58476d1ce4e5b9L;
+            hash ^= hash >>> 31;
+        }
+        return hash;
+    }
+
+    /**
+     * A cached result.
+     */
+    private static class CachedResult {
+
+        private final long check;                   //The check hash of the normalised text, to tell apart texts with the same key.
+        private final List<DistanceLabel> labels;   //The distance of the text from each training set.
+        private final long created;                 //When the result was classified.
+
+        private CachedResult(long check, List<DistanceLabel> labels, long created) {
+            this.check = check;
+            this.labels = labels;
+            this.created = created;
+        }
+    }
+
+    /**
+     * Compares an object by identity rather than by equality.
+     */
+    private static class Identity {
+
+        private final Object object;        //The object compared.
+
+        private Identity(Object object) {
+            this.object = object;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Identity && ((Identity) obj).object == this.object;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this.object);
+        }
+    }
+}
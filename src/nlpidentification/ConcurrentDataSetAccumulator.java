@@ -0,0 +1,126 @@
+package nlpidentification;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Gathers the bigrams of one profile from many producer threads at once, such as several files, streams or shards of the same language.
+ * Each producer thread counts its lines into a batch of its own, without any locking, and folds the batch into a running total once it holds enough lines. A snapshot copies the running total into a standard ranked DataSet.
+ * Memory grows with the number of producer threads and distinct bigrams, not with the number of lines or batches added.
+ * @author DominicWild
+ */
+public class ConcurrentDataSetAccumulator {
+
+    private static final int BATCH_LINES = 4096;    //The lines a producer counts before folding them into the total.
+    private final String sourceName;                //The name given to snapshots.
+    private final Language lang;                    //The language of the gathered text.
+    private final BigramCounter total = new BigramCounter();    //The counts of every folded batch.
+    private final ThreadLocal<Batch> batches = ThreadLocal.withInitial(Batch::new);  //The lines each producer has counted but not yet folded.
+    private int wordCount;                          //The words of every folded batch.
+    private int lineCount;                          //The lines of every folded batch.
+
+    /**
+     * Creates an empty accumulator.
+     * @param sourceName The name given to snapshots.
+     * @param lang The language of the gathered text.
+     */
+    public ConcurrentDataSetAccumulator(String sourceName, Language lang) {
+        this.sourceName = sourceName;
+        this.lang = lang;
+    }
+
+    /**
+     * Counts a line on the calling thread. The line is seen by snapshots once its batch is folded, after every few thousand lines or when the thread flushes.
+     * @param line The line to add.
+     */
+    public void addLine(String line) {
+        Batch batch = this.batches.get();
+        batch.wordCount += batch.scanner.scan(line, Integer.MAX_VALUE, batch.counts::add);
+        batch.lineCount++;
+        if (batch.lineCount >= BATCH_LINES) {
+            this.flush();
+        }
+    }
+
+    /**
+     * Counts every line of a reader on the calling thread, flushing once the reader ends.
+     * @param reader The reader to add, read until it ends.
+     * @throws IOException If a line could not be read. Lines read before the failure are still added.
+     */
+    public void addLines(BufferedReader reader) throws IOException {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                this.addLine(line);
+            }
+        } finally {
+            this.flush();
+        }
+    }
+
+    /**
+     * Counts every line of a corpus file on the calling thread, flushing once it is read.
+     * @param corpusFile The corpus file, inflated as it is read if it ends in .gz.
+     * @throws IOException If the file could not be read.
+     */
+    public void addFile(String corpusFile) throws IOException {
+        try (BufferedReader reader = CorpusReader.open(corpusFile)) {
+            this.addLines(reader);
+        }
+    }
+
+    /**
+     * Folds the lines the calling thread has counted but not yet folded into the total, so snapshots see them.
+     */
+    public void flush() {
+        Batch batch = this.batches.get();
+        if (batch.lineCount == 0) {
+            return;
+        }
+        synchronized (this) {
+            this.total.addAll(batch.counts);
+            this.wordCount += batch.wordCount;
+            this.lineCount += batch.lineCount;
+        }
+        batch.counts.clear();
+        batch.wordCount = 0;
+        batch.lineCount = 0;
+    }
+
+    /**
+     * Folds counts gathered elsewhere, such as those of a shard, into the total.
+     * @param partial The counts.
+     */
+    public synchronized void add(PartialProfile partial) {
+        this.total.addAll(partial.getCounts());
+        this.wordCount += partial.getWordCount();
+        this.lineCount += partial.getLineCount();
+    }
+
+    /**
+     * Ranks the counts folded so far into a DataSet. Producers may keep adding while, and after, a snapshot is taken; lines not yet flushed by their thread are not included.
+     * @return The DataSet of everything folded so far.
+     */
+    public DataSet snapshot() {
+        BigramCounter counts;
+        int words;
+        int lines;
+        synchronized (this) { //Only copies the total, so producers wait for a copy rather than for the ranking.
+            counts = this.total.copy();
+            words = this.wordCount;
+            lines = this.lineCount;
+        }
+        return new DataSet(this.sourceName, this.lang, counts, words, lines);
+    }
+
+    /**
+     * The lines a producer thread has counted but not yet folded into the total.
+     */
+    private static class Batch {
+
+        private final BigramScanner scanner = new BigramScanner();  //Splits the producer's lines into words and bigrams.
+        private final BigramCounter counts = new BigramCounter();   //The bigrams of the batch.
+        private int wordCount;                                      //The words of the batch.
+        private int lineCount;                                      //The lines of the batch.
+    }
+}
@@ -0,0 +1,180 @@
+package nlpidentification;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens corpus files for reading, whether plain text or gzip compressed.
+ * A compressed corpus is inflated on a thread of its own, handing blocks of text through a bounded queue to the reading thread, which decodes and counts them while the next blocks inflate.
+ * @author DominicWild
+ */
+public class CorpusReader {
+
+    public static final String COMPRESSED_SUFFIX = ".gz";   //The suffix of gzip compressed corpus files.
+    private static final int BLOCK_BYTES = 1 << 16;         //The size of each block of inflated text handed over.
+    private static final int BLOCKS_IN_FLIGHT = 8;          //The most inflated blocks waiting to be read.
+    private static final byte[] END = new byte[0];          //Marks the end of the inflated text.
+
+    /**
+     * Opens a corpus file, decoding it with the default character set as a FileReader would.
+     * @param fileName The name of the corpus file, inflated as it is read if it ends in .gz.
+     * @return A reader of the corpus's lines.
+     * @throws IOException If the file could not be opened.
+     */
+    public static BufferedReader open(String fileName) throws IOException {
+        if (isCompressed(fileName)) {
+            return new BufferedReader(new InputStreamReader(new InflatingStream(fileName), Charset.defaultCharset()), BLOCK_BYTES);
+        }
+        return new BufferedReader(new FileReader(fileName));
+    }
+
+    /**
+     * Reads every line of a corpus file.
+     * @param fileName The name of the corpus file, inflated as it is read if it ends in .gz.
+     * @return The lines of the corpus.
+     * @throws IOException If the file could not be read.
+     */
+    public static List<String> readAllLines(String fileName) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = open(fileName)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Whether a corpus file is gzip compressed.
+     * @param fileName The name of the corpus file.
+     * @return True if it ends in .gz.
+     */
+    public static boolean isCompressed(String fileName) {
+        return fileName.endsWith(COMPRESSED_SUFFIX);
+    }
+
+    /**
+     * The inflated bytes of a compressed file, inflated ahead of the reader on a separate thread.
+     */
+    private static class InflatingStream extends InputStream {
+
+        private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(BLOCKS_IN_FLIGHT);   //Inflated blocks waiting to be read.
+        private final Thread inflater;          //The thread inflating the file.
+        private volatile IOException failure;   //Why inflation stopped early, if it did.
+        private byte[] block;                   //The block being read.
+        private int position;                   //The position of the next byte within the block.
+
+        /**
+         * Starts inflating a file.
+         * @param fileName The name of the compressed file.
+         * @throws IOException If the file could not be opened.
+         */
+        private InflatingStream(String fileName) throws IOException {
+            InputStream compressed = new GZIPInputStream(Files.newInputStream(Paths.get(fileName)), BLOCK_BYTES);
+            this.inflater = new Thread(() -> this.inflate(compressed), "Inflating " + fileName);
+            this.inflater.setDaemon(true);
+            this.inflater.start();
+        }
+
+        /**
+         * Inflates the file into blocks until it ends, the reader is closed, or an error occurs.
+         * @param compressed The compressed file.
+         */
+        private void inflate(InputStream compressed) {
+            try (InputStream in = compressed) {
+                while (true) {
+                    byte[] inflated = new byte[BLOCK_BYTES];
+                    int length = 0;
+                    int read;
+                    while (length < inflated.length && (read = in.read(inflated, length, inflated.length - length)) != -1) {
+                        length += read;
+                    }
+                    if (length == 0) {
+                        break;
+                    }
+                    this.blocks.put(length == inflated.length ? inflated : Arrays.copyOf(inflated, length));
+                }
+            } catch (IOException ex) {
+                this.failure = ex;
+            } catch (InterruptedException ex) { //The reader was closed, nothing is waiting for the rest.
+                return;
+            }
+            try {
+                this.blocks.put(END);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!this.nextBlock()) {
+                return -1;
+            }
+            return this.block[this.position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!this.nextBlock()) {
+                return -1;
+            }
+            int copied = Math.min(length, this.block.length - this.position);
+            System.arraycopy(this.block, this.position, buffer, offset, copied);
+            this.position += copied;
+            return copied;
+        }
+
+        /**
+         * Waits for the next inflated block once the current one is read.
+         * @return False if the inflated text has ended.
+         * @throws IOException If inflation failed, or the wait was interrupted.
+         */
+        private boolean nextBlock() throws IOException {
+            if (this.block == END) {
+                return false;
+            }
+            if (this.block != null && this.position < this.block.length) {
+                return true;
+            }
+            try {
+                this.block = this.blocks.take();
+                this.position = 0;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for inflated text.");
+            }
+            if (this.block == END) {
+                if (this.failure != null) {
+                    throw this.failure;
+                }
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            this.block = END;
+            this.inflater.interrupt(); //Stop inflating text nobody will read.
+            this.blocks.clear();
+        }
+    }
+}
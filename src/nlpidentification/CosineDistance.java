@@ -0,0 +1,42 @@
+package nlpidentification;
+
+/**
+ * The cosine distance between the dense bigram frequency vectors of a training set and a test set, 0 when their bigrams occur in the same proportions.
+ * @author DominicWild
+ */
+public class CosineDistance extends DenseDistance {
+
+    /**
+     * Creates the metric over the alphabet of the passed training sets.
+     * @param trainingSets The training sets that will be measured against.
+     */
+    public CosineDistance(DataSet... trainingSets) {
+        super(trainingSets);
+    }
+
+    /**
+     * Scales the training vector to unit length, so comparisons only need to scale the test vector.
+     * @param frequencies The frequency of every bigram of the training set.
+     * @return The unit length vector.
+     */
+    @Override
+    protected float[] prepareTrain(float[] frequencies) {
+        double norm = Math.sqrt(dot(frequencies, frequencies));
+        if (norm > 0) {
+            float scale = (float) (1 / norm);
+            for (int i = 0; i < frequencies.length; i++) {
+                frequencies[i] *= scale;
+            }
+        }
+        return frequencies;
+    }
+
+    @Override
+    protected double compare(float[] train, SparseVector test) {
+        double norm = Math.sqrt(test.dotSelf());
+        if (norm == 0) { //Nothing to compare, as far from everything as possible.
+            return 1;
+        }
+        return 1 - test.dot(train) / norm;
+    }
+}
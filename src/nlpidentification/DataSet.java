@@ -3,14 +3,11 @@ package nlpidentification;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.StringTokenizer;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.lang3.StringEscapeUtils;
@@ -22,11 +19,13 @@ import org.apache.commons.lang3.StringEscapeUtils;
 public class DataSet {
 
     private final int CLEAN_BELOW = 2;              //Every bigram with a frequency below this value (exclusive) will be removed.
-    protected ArrayList<BigramUnit> dataset;        //The dataset of all bigrams in this set.
+    protected ArrayList<BigramUnit> dataset;        //The bigrams of this set while it is being gathered, null once ranked.
+    private PackedProfile profile;                  //The ranked bigrams of this set, once gathered.
     private Language dataSetLanguage;               //The language this data set has bigrams for.
     private String corpusFileName;                  //The name of the corpus file used to generate this data set.
     private int wordCount;                          //The amount of words this data set has processed.
     private int lineCount;                          //The amount of lines this data set has processed.
+    private final BigramScanner scanner = new BigramScanner();  //Splits lines into words and bigrams.
 
     /**
      * Creates a DataSet from the passed corpus file, labeled with the passed language.
@@ -64,6 +63,51 @@ public class DataSet {
         this.manageDataset();
     }
     
+    /**
+     * Creates a DataSet from the text of the passed reader, labeled with the passed language.
+     * @param source The reader to extract bigrams from, read until it ends.
+     * @param sourceName The name of the source the text is read from.
+     * @param lang The language of the text, or null if it is not known.
+     * @throws IOException If the text could not be read.
+     */
+    public DataSet(BufferedReader source, String sourceName, Language lang) throws IOException {
+        this.init(sourceName, lang);
+        this.populateTable(source, Integer.MAX_VALUE);
+        this.manageDataset();
+    }
+    
+    /**
+     * Creates a DataSet from bigram counts that have already been gathered, labeled with the passed language.
+     * @param corpusFile The name of the corpus file the counts were gathered from.
+     * @param lang The language the counts refer to.
+     * @param counts The bigram counts.
+     * @param wordCount The number of words the counts were gathered from.
+     * @param lineCount The number of lines the counts were gathered from.
+     */
+    public DataSet(String corpusFile, Language lang, BigramCounter counts, int wordCount, int lineCount) {
+        this.init(corpusFile, lang);
+        this.dataset.addAll(counts.toUnits());
+        this.wordCount = wordCount;
+        this.lineCount = lineCount;
+        this.manageDataset();
+    }
+    
+    /**
+     * Creates a DataSet over an already ranked profile, labeled with the passed language.
+     * @param corpusFile The name of the corpus file the profile was gathered from.
+     * @param lang The language the profile refers to.
+     * @param profile The ranked profile.
+     * @param wordCount The number of words the profile was gathered from.
+     * @param lineCount The number of lines the profile was gathered from.
+     */
+    public DataSet(String corpusFile, Language lang, PackedProfile profile, int wordCount, int lineCount) {
+        this.init(corpusFile, lang);
+        this.dataset = null;
+        this.profile = profile;
+        this.wordCount = wordCount;
+        this.lineCount = lineCount;
+    }
+    
     /**
      * Initialises basic variables for the DataSet constructor.
      * @param corpusFile The corpus file to extract bigrams from.
@@ -78,11 +122,16 @@ public class DataSet {
     }
 
     /**
-     * General post-processing that is done when data is gathered.
+     * General post-processing that is done when data is gathered. The gathered bigrams are cleaned, ranked and packed into the profile.
      */
-    private void manageDataset() {
-        this.clean();
-        this.dataset.sort(null);
+    @SuppressWarnings("try") //The scope only marks the stage.
+    protected void manageDataset() {
+        try (StageProfiler.Scope stage = StageProfiler.enter(StageProfiler.Stage.CLEAN_SORT)) {
+            this.clean();
+            this.dataset.sort(null);
+            this.profile = PackedProfile.of(this.dataset);
+            this.dataset = null; //Only the packed profile is kept.
+        }
     }
     
     /**
@@ -105,7 +154,7 @@ public class DataSet {
                 output.createNewFile();
             }
             
-            for (BigramUnit unit : this.dataset) {
+            for (BigramUnit unit : this.getDataset()) {
                 writer.write(StringEscapeUtils.escapeCsv(unit.getBigram())+ "," + unit.getFreq() + System.lineSeparator());
             }
 
@@ -119,9 +168,27 @@ public class DataSet {
      * Populates DataSet with bigrams from the passed file.
      * @param wordLimit The limit of words to process.
      */
+    @SuppressWarnings("try") //The scope only marks the stage.
     protected void populateTable(int wordLimit) {
-        try (BufferedReader br = new BufferedReader(new FileReader(this.corpusFileName))) {
-
+        try (StageProfiler.Scope stage = StageProfiler.enter(StageProfiler.Stage.INGESTION);
+                BufferedReader br = CorpusReader.open(this.corpusFileName)) {
+            this.populateTable(br, wordLimit);
+        } catch (FileNotFoundException ex) {
+            Logger.getLogger(DataSet.class.getName()).log(Level.SEVERE, "File not found for " + this.corpusFileName, ex);
+        } catch (IOException ex) {
+            Logger.getLogger(DataSet.class.getName()).log(Level.SEVERE, "IOException occured for " + this.corpusFileName, ex);
+        }
+    }
+    
+    /**
+     * Populates DataSet with bigrams from the passed reader.
+     * @param br The reader to get lines from.
+     * @param wordLimit The limit of words to process.
+     * @throws IOException If a line could not be read.
+     */
+    @SuppressWarnings("try") //The scope only marks the stage.
+    protected void populateTable(BufferedReader br, int wordLimit) throws IOException {
+        try (StageProfiler.Scope stage = StageProfiler.enter(StageProfiler.Stage.INGESTION)) {
             HashMap<String, BigramUnit> freqMap = new HashMap<>(); //Mapping of bigrams to BigramUnits.
             String line = br.readLine();
             boolean stop = false;       //Determines when to stop processing.
@@ -134,10 +201,6 @@ public class DataSet {
                 }
             }
             this.dataset.addAll(freqMap.values()); //Add all bigram units to the dataset.
-        } catch (FileNotFoundException ex) {
-            Logger.getLogger(DataSet.class.getName()).log(Level.SEVERE, "File not found for " + this.corpusFileName, ex);
-        } catch (IOException ex) {
-            Logger.getLogger(DataSet.class.getName()).log(Level.SEVERE, "IOException occured for " + this.corpusFileName, ex);
         }
     }
     
@@ -154,8 +217,10 @@ public class DataSet {
      * @param lineLimit The limit of lines to process.
      * @param startAt The line to start processing at.
      */
+    @SuppressWarnings("try") //The scope only marks the stage.
     protected void populateTableByLine(int lineLimit, int startAt){
-        try (BufferedReader br = new BufferedReader(new FileReader(this.corpusFileName))) {
+        try (StageProfiler.Scope stage = StageProfiler.enter(StageProfiler.Stage.INGESTION);
+                BufferedReader br = CorpusReader.open(this.corpusFileName)) {
 
             HashMap<String, BigramUnit> freqMap = new HashMap<>();
             String line;
@@ -202,51 +267,46 @@ public class DataSet {
     protected boolean processLine(HashMap<String, BigramUnit> freqMap, String line, int wordLimit) {
         this.lineCount++;               
         char[] bigram = new char[2];
-        boolean stop = false;
-
-        StringTokenizer tokenizer = new StringTokenizer(line);
-        wordCount += tokenizer.countTokens();
-        if (wordLimit < wordCount) { //If we're going to go over the word limit
-            line = ""; //We only want to limit our line to words we need to process.
-            this.wordCount -= tokenizer.countTokens();
-            int numWordsToGet = wordLimit - wordCount;
-            this.wordCount += numWordsToGet;
-            for (int i = 0; i < numWordsToGet; i++) {
-                line += tokenizer.nextToken() + " ";
-            }
-            line = line.trim(); //Get rid of space at the end
-            stop = true;
-        }
 
-        for (int i = 0; i < line.length() - 1; i++) { 
-            char c = line.charAt(i);
-            char cNext = line.charAt(i + 1);
+        this.wordCount += this.scanner.scan(line, wordLimit - this.wordCount, (c, cNext) -> { //Only scans the words we still need to process.
             bigram[0] = c;
             bigram[1] = cNext;
             String strBigram = new String(bigram);
-            if (freqMap.containsKey(strBigram)) { //Increment bigram if it exists, if not add it and increment.
-                freqMap.get(strBigram).inc();
+            BigramUnit unit = freqMap.get(strBigram);
+            if (unit != null) { //Increment bigram if it exists, if not add it and increment.
+                unit.inc();
             } else {
-                BigramUnit unit = new BigramUnit(bigram.clone());
+                unit = new BigramUnit(bigram.clone());
                 unit.inc();
                 freqMap.put(strBigram, unit);
             }
-        }
+        });
 
-        return stop;
+        return this.scanner.isTruncated(); //Stop if we went over the word limit.
     }
 
     /**
      * Cleans the DataSet by defined means.
      */
     public void clean() {
+        if (this.dataset == null) { //Already cleaned when it was ranked.
+            return;
+        }
         this.dataset.removeIf(p -> {
             return p.getFreq() < CLEAN_BELOW;
         });
     }
 
-    public ArrayList<BigramUnit> getDataset() {
-        return dataset;
+    /**
+     * The bigrams of this set. Once ranked, this is a read only view over the profile, with units created as they are accessed.
+     * @return The bigrams of this set.
+     */
+    public List<BigramUnit> getDataset() {
+        return this.dataset != null ? this.dataset : this.profile.asUnits();
+    }
+
+    public PackedProfile getProfile() {
+        return profile;
     }
 
     public Language getDataSetLanguage() {
@@ -306,22 +366,17 @@ public class DataSet {
     }
     
     /**
-     * Combines two DataSets into one. Done by adding frequency values onto BigramUnit's and adding ones that aren't present yet.
+     * Combines two DataSets into one. Done by adding the frequency values of both sets together and ranking the result again.
      * @param set1 The first set to combine.
      * @param set2 The second set to combine.
      * @return The combined 2 sets into one DataSet.
      */
     public static DataSet combine(DataSet set1, DataSet set2){
-        ArrayList<BigramUnit> data1 = set1.getDataset();
-        ArrayList<BigramUnit> data2 = set2.getDataset();
-        
-        for(BigramUnit unit : data1){ //For each BigramUnit in data1 
-            if(data2.contains(unit)){ //Increment frequency from same units by the data1 unit's
-                data2.get(data2.indexOf(unit)).inc(unit.getFreq());
-            } else { //Or add it, if it is not present.
-                data2.add(unit);
-            }
-        }
+        BigramCounter counts = new BigramCounter(set1.getProfile().size() + set2.getProfile().size());
+        set1.getProfile().addTo(counts);
+        set2.getProfile().addTo(counts);
+        set2.dataset = counts.toUnits();
+        set2.manageDataset();
         //Update semantics about the files
         set2.setLineCount(set2.getLineCount() + set1.getLineCount());
         set2.setWordCount(set2.getWordCount() + set1.getWordCount());
@@ -335,7 +390,7 @@ public class DataSet {
      */
     public static int linesInFile(String fileName){
         try {
-            return Files.readAllLines(Paths.get(fileName)).size();
+            return CorpusReader.readAllLines(fileName).size();
         } catch (IOException ex) {
             Logger.getLogger(DataSet.class.getName()).log(Level.SEVERE, null, ex);
         }
@@ -0,0 +1,231 @@
+package nlpidentification;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A distance measured over dense frequency vectors, indexed by the characters of an alphabet taken from the training sets.
+ * Characters outside of the alphabet share a single index. Training vectors are plain float arrays, prepared once per training set. A test set is held sparsely, as the few indexes its bigrams fall on, so each comparison only visits those indexes of the training vector.
+ * @author DominicWild
+ */
+public abstract class DenseDistance implements DistanceMetric {
+
+    private final int[] charIndex;          //The alphabet index of every character, 0 for those outside of it.
+    private final int alphabetSize;         //The number of indexes, including the shared one.
+    private final Map<PackedProfile, float[]> trainVectors = Collections.synchronizedMap(new WeakHashMap<>()); //Prepared training vectors, kept while their profile is in use.
+    private final ThreadLocal<SparseVector> lastTest = new ThreadLocal<>();  //The test vector last measured by each thread, reused across the training sets it is measured against.
+    private final ThreadLocal<float[]> scratch = ThreadLocal.withInitial(() -> new float[this.dimensions()]);  //A dense vector for each thread to sum test frequencies in.
+
+    /**
+     * Creates the alphabet from the characters within the passed training sets.
+     * @param trainingSets The training sets that will be measured against.
+     */
+    protected DenseDistance(DataSet... trainingSets) {
+        this.charIndex = new int[Character.MAX_VALUE + 1];
+        int next = 1;
+        for (DataSet trainSet : trainingSets) {
+            PackedProfile profile = trainSet.getProfile();
+            for (int rank = 0; rank < profile.size(); rank++) {
+                for (char c : new char[]{BigramCounter.first(profile.key(rank)), BigramCounter.second(profile.key(rank))}) {
+                    if (this.charIndex[c] == 0) {
+                        this.charIndex[c] = next++;
+                    }
+                }
+            }
+        }
+        this.alphabetSize = next;
+    }
+
+    @Override
+    public double distance(DataSet trainSet, DataSet testSet) {
+        return this.compare(this.trainVector(trainSet), this.testVector(testSet.getProfile()));
+    }
+
+    /**
+     * The sparse frequency vector of a test set, reused while the same thread measures it against each training set.
+     * @param profile The profile of the test set.
+     * @return The sparse vector.
+     */
+    private SparseVector testVector(PackedProfile profile) {
+        SparseVector test = this.lastTest.get();
+        if (test == null || test.profile != profile) {
+            test = new SparseVector(profile, this);
+            this.lastTest.set(test);
+        }
+        return test;
+    }
+
+    /**
+     * The prepared vector of a training set, prepared on first use.
+     * @param trainSet The training set.
+     * @return The prepared vector, which must not be changed.
+     */
+    public float[] trainVector(DataSet trainSet) {
+        float[] train = this.trainVectors.get(trainSet.getProfile());
+        if (train == null) {
+            train = this.prepareTrain(this.frequencies(trainSet.getProfile()));
+            this.trainVectors.put(trainSet.getProfile(), train);
+        }
+        return train;
+    }
+
+    /**
+     * Prepares the frequency vector of a training set for comparison, which is done once per training set.
+     * @param frequencies The frequency of every bigram of the training set.
+     * @return The prepared vector, may be the passed vector.
+     */
+    protected abstract float[] prepareTrain(float[] frequencies);
+
+    /**
+     * Compares a prepared training vector with the frequency vector of a test set.
+     * @param train The prepared training vector.
+     * @param test The frequency of every bigram of the test set.
+     * @return The distance between the vectors.
+     */
+    protected abstract double compare(float[] train, SparseVector test);
+
+    /**
+     * Creates the dense frequency vector of a profile.
+     * @param profile The profile.
+     * @return The frequency of every bigram, at the index of its alphabet characters.
+     */
+    public float[] frequencies(PackedProfile profile) {
+        float[] vector = new float[this.dimensions()];
+        for (int rank = 0; rank < profile.size(); rank++) {
+            vector[this.indexOf(profile.key(rank))] += profile.freq(rank);
+        }
+        return vector;
+    }
+
+    /**
+     * The index of a packed bigram within a dense vector.
+     * @param key The packed bigram.
+     * @return The index.
+     */
+    public int indexOf(int key) {
+        return this.charIndex[BigramCounter.first(key)] * this.alphabetSize + this.charIndex[BigramCounter.second(key)];
+    }
+
+    /**
+     * The length of every dense vector.
+     * @return The number of dimensions.
+     */
+    public int dimensions() {
+        return this.alphabetSize * this.alphabetSize;
+    }
+
+    /**
+     * The dot product of two vectors of the same length.
+     * @param a The first vector.
+     * @param b The second vector.
+     * @return The dot product.
+     */
+    protected static double dot(float[] a, float[] b) {
+        float sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0; //Independent sums, so additions need not wait on each other.
+        int i = 0;
+        for (; i + 3 < a.length; i += 4) {
+            sum0 += a[i] * b[i];
+            sum1 += a[i + 1] * b[i + 1];
+            sum2 += a[i + 2] * b[i + 2];
+            sum3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < a.length; i++) {
+            sum0 += a[i] * b[i];
+        }
+        return (double) sum0 + sum1 + sum2 + sum3;
+    }
+
+    /**
+     * The sum of a vector's values.
+     * @param a The vector.
+     * @return The sum.
+     */
+    protected static double sum(float[] a) {
+        float sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+        int i = 0;
+        for (; i + 3 < a.length; i += 4) {
+            sum0 += a[i];
+            sum1 += a[i + 1];
+            sum2 += a[i + 2];
+            sum3 += a[i + 3];
+        }
+        for (; i < a.length; i++) {
+            sum0 += a[i];
+        }
+        return (double) sum0 + sum1 + sum2 + sum3;
+    }
+
+    /**
+     * The frequency vector of a test set, held as the indexes its bigrams fall on and the summed frequency at each.
+     */
+    protected static class SparseVector {
+
+        private final PackedProfile profile;    //The profile the vector was made from.
+        private final int[] indexes;            //The dense indexes with a frequency.
+        private final float[] values;           //The frequency at each index.
+
+        /**
+         * Creates the sparse frequency vector of a profile.
+         * @param profile The profile.
+         * @param metric The metric whose alphabet indexes the vector.
+         */
+        private SparseVector(PackedProfile profile, DenseDistance metric) {
+            this.profile = profile;
+            float[] scratch = metric.scratch.get(); //All zero between uses.
+            int[] sparseIndexes = new int[profile.size()];
+            int size = 0;
+            for (int rank = 0; rank < profile.size(); rank++) {
+                int index = metric.indexOf(profile.key(rank));
+                if (scratch[index] == 0) { //Bigrams outside of the alphabet may share an index.
+                    sparseIndexes[size++] = index;
+                }
+                scratch[index] += profile.freq(rank);
+            }
+            this.indexes = Arrays.copyOf(sparseIndexes, size);
+            this.values = new float[size];
+            for (int i = 0; i < size; i++) {
+                this.values[i] = scratch[this.indexes[i]];
+                scratch[this.indexes[i]] = 0;
+            }
+        }
+
+        /**
+         * The dot product with a dense vector.
+         * @param dense The dense vector.
+         * @return The dot product.
+         */
+        protected double dot(float[] dense) {
+            float sum = 0;
+            for (int i = 0; i < this.indexes.length; i++) {
+                sum += dense[this.indexes[i]] * this.values[i];
+            }
+            return sum;
+        }
+
+        /**
+         * The dot product with itself.
+         * @return The squared length of the vector.
+         */
+        protected double dotSelf() {
+            float sum = 0;
+            for (float value : this.values) {
+                sum += value * value;
+            }
+            return sum;
+        }
+
+        /**
+         * The sum of the vector's values.
+         * @return The sum.
+         */
+        protected double sum() {
+            float sum = 0;
+            for (float value : this.values) {
+                sum += value;
+            }
+            return sum;
+        }
+    }
+}
@@ -9,20 +9,38 @@ package nlpidentification;
 public class DistanceLabel {
 
     private Language lang;              //The language this label represents.
-    private int rankDistance;           //The distance from some comparison.
+    private double distance;            //The distance from some comparison.
 
-    public DistanceLabel(Language lang, int rankDistance) {
+    public DistanceLabel(Language lang, double distance) {
         this.lang = lang;
-        this.rankDistance = rankDistance;
+        this.distance = distance;
     }
 
     public Language getLang() {
         return lang;
     }
 
+    public double getDistance() {
+        return distance;
+    }
+
+    /**
+     * The distance as a whole number, as measured by the rank distance.
+     * @return The distance, rounded.
+     */
     public int getRankDistance() {
-        return rankDistance;
+        return (int) Math.round(distance);
     }
 
+    /**
+     * The distance as text, without a fraction when it is a whole number.
+     * @return The formatted distance.
+     */
+    public String formatDistance() {
+        if (distance == Math.rint(distance) && !Double.isInfinite(distance)) {
+            return Long.toString((long) distance);
+        }
+        return Double.toString(distance);
+    }
 
 }
@@ -0,0 +1,16 @@
+package nlpidentification;
+
+/**
+ * A measure of how far a test set is from a training set, where a smaller distance means the test set is more likely to be the training set's language.
+ * @author DominicWild
+ */
+public interface DistanceMetric {
+
+    /**
+     * Calculates the distance between a training set and a test set.
+     * @param trainSet The training set to measure against.
+     * @param testSet The test set to measure.
+     * @return The distance between these sets.
+     */
+    double distance(DataSet trainSet, DataSet testSet);
+}
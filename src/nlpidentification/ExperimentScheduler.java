@@ -0,0 +1,101 @@
+package nlpidentification;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the tasks of an experiment as a dependency graph on a shared executor.
+ * A task is started as soon as all the tasks it depends on have completed, and the time it took is reported to the log.
+ * @author DominicWild
+ */
+public class ExperimentScheduler {
+
+    private final ExecutorService executor;     //The executor shared by every task.
+    private final Consumer<String> log;         //Where the timing of each task is reported.
+
+    /**
+     * Creates a scheduler with the passed number of worker threads.
+     * @param threads The number of tasks that may run at once.
+     * @param log Where the timing of each task is reported.
+     */
+    public ExperimentScheduler(int threads, Consumer<String> log) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("A scheduler needs at least one thread.");
+        }
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.log = log;
+    }
+
+    /**
+     * Schedules a task that produces a result, to run once all of its dependencies have completed.
+     * @param <T> The type of result the task produces.
+     * @param name The name of the task, used when logging.
+     * @param task The task to run.
+     * @param dependencies The tasks that must complete before this one can start.
+     * @return A future holding the result of the task.
+     */
+    public <T> CompletableFuture<T> submit(String name, Callable<T> task, CompletableFuture<?>... dependencies) {
+        return CompletableFuture.allOf(dependencies).thenApplyAsync(ignored -> this.time(name, task), this.executor);
+    }
+
+    /**
+     * Schedules a task without a result, to run once all of its dependencies have completed.
+     * @param name The name of the task, used when logging.
+     * @param task The task to run.
+     * @param dependencies The tasks that must complete before this one can start.
+     * @return A future that completes when the task has run.
+     */
+    public CompletableFuture<Void> execute(String name, Runnable task, CompletableFuture<?>... dependencies) {
+        return this.submit(name, () -> {
+            task.run();
+            return null;
+        }, dependencies);
+    }
+
+    /**
+     * Stops accepting tasks, waiting for those already running to finish.
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs a task, logging how long it took.
+     * @param <T> The type of result the task produces.
+     * @param name The name of the task.
+     * @param task The task to run.
+     * @return The result of the task.
+     */
+    private <T> T time(String name, Callable<T> task) {
+        long start = System.nanoTime();
+        try {
+            T result = task.call();
+            this.log.accept("[" + name + "] finished in " + formatSeconds(System.nanoTime() - start) + "s");
+            return result;
+        } catch (Exception ex) {
+            Logger.getLogger(ExperimentScheduler.class.getName()).log(Level.SEVERE, "Task " + name + " failed.", ex);
+            throw new CompletionException(ex);
+        }
+    }
+
+    /**
+     * Formats a duration in nanoseconds as seconds to 2 decimal places.
+     * @param nanos The duration to format.
+     * @return The formatted duration.
+     */
+    private static String formatSeconds(long nanos) {
+        return String.format("%.2f", nanos / 1e9);
+    }
+}
@@ -0,0 +1,139 @@
+package nlpidentification;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a document that switches between languages into spans of a single language.
+ * A window of bigrams slides along the text, its log likelihood under each training set is kept up to date by adding the bigram entering the window and removing the one leaving it, so the cost grows with the length of the text and not the size of the window.
+ * The language scoring the window best is given to the character at its centre, spans shorter than half a window are then absorbed by their neighbours, as they are more likely noise than a switch of language.
+ * @author DominicWild
+ */
+public class LanguageSegmenter {
+
+    private final int windowSize;                       //The number of bigrams within the window.
+    private final LogLikelihoodDistance metric;         //Gives the dense index of each bigram.
+    private final Language[] languages;                 //The language of each training set.
+    private final float[][] logProbabilities;           //The log probability of every bigram, per training set.
+
+    /**
+     * Creates a segmenter against the passed training sets.
+     * @param windowSize The number of bigrams within the window.
+     * @param trainingSets The training sets of every language that may appear.
+     */
+    public LanguageSegmenter(int windowSize, DataSet... trainingSets) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("The window must hold at least one bigram.");
+        }
+        if (trainingSets.length == 0) {
+            throw new IllegalArgumentException("At least one training set is needed.");
+        }
+        this.windowSize = windowSize;
+        this.metric = new LogLikelihoodDistance(trainingSets);
+        this.languages = new Language[trainingSets.length];
+        this.logProbabilities = new float[trainingSets.length][];
+        for (int i = 0; i < trainingSets.length; i++) {
+            this.languages[i] = trainingSets[i].getDataSetLanguage();
+            this.logProbabilities[i] = this.metric.trainVector(trainingSets[i]);
+        }
+    }
+
+    /**
+     * Splits text into spans of a single language.
+     * @param text The text to split.
+     * @return The spans, in order and covering the whole text. A span's language is null if it held no bigrams to judge by.
+     */
+    public List<LanguageSpan> segment(CharSequence text) {
+        ArrayList<LanguageSpan> spans = new ArrayList<>();
+        int numBigrams = Math.max(text.length() - 1, 0);
+        int window = Math.min(this.windowSize, numBigrams);
+        double[] scores = new double[this.languages.length];    //The log likelihood of the window under each training set.
+        int counted = 0;            //The number of bigrams within the window that are scored.
+        Language current = null;    //The language of the span being built.
+        boolean labelled = false;   //Whether any window has been judged yet.
+        int spanStart = 0;
+
+        for (int i = 0; i < numBigrams; i++) {
+            counted += this.slide(text, i, scores, 1);
+            if (i >= window) {
+                counted -= this.slide(text, i - window, scores, -1);
+            }
+            if (i >= window - 1) { //The window is full, holding bigrams i - window + 1 to i.
+                Language best = counted > 0 ? this.best(scores) : current;
+                int centre = i - window + 1 + (window + 1) / 2;
+                if (!labelled) { //The first language also covers the text before the first centre.
+                    current = best;
+                    labelled = true;
+                } else if (best != current) {
+                    spans.add(new LanguageSpan(spanStart, centre, current));
+                    spanStart = centre;
+                    current = best;
+                }
+            }
+        }
+        if (text.length() > 0) {
+            spans.add(new LanguageSpan(spanStart, text.length(), current));
+        }
+        return absorbShortSpans(spans, this.windowSize / 2);
+    }
+
+    /**
+     * Absorbs spans shorter than a minimum length into the span before them, or after them for the first span, joining neighbours of the same language.
+     * @param spans The spans, in order.
+     * @param minLength The minimum length of a span.
+     * @return The remaining spans, in order.
+     */
+    private static List<LanguageSpan> absorbShortSpans(List<LanguageSpan> spans, int minLength) {
+        ArrayList<LanguageSpan> kept = new ArrayList<>();
+        for (LanguageSpan span : spans) {
+            LanguageSpan last = kept.isEmpty() ? null : kept.get(kept.size() - 1);
+            if (last == null && span.getEnd() - span.getStart() < minLength && span != spans.get(spans.size() - 1)) {
+                continue; //Joins the first long enough span.
+            }
+            if (last == null) { //Covering any short spans skipped at the start of the text.
+                kept.add(new LanguageSpan(0, span.getEnd(), span.getLang()));
+            } else if (span.getLang() == last.getLang() || span.getEnd() - span.getStart() < minLength) {
+                kept.set(kept.size() - 1, new LanguageSpan(last.getStart(), span.getEnd(), last.getLang()));
+            } else {
+                kept.add(span);
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Adds or removes the scores of a bigram. Bigrams spanning a line break are not scored, as lines are profiled separately.
+     * @param text The text.
+     * @param i The index of the bigram's first character.
+     * @param scores The scores to change.
+     * @param sign 1 to add the bigram, -1 to remove it.
+     * @return 1 if the bigram was scored, otherwise 0.
+     */
+    private int slide(CharSequence text, int i, double[] scores, int sign) {
+        char c1 = text.charAt(i);
+        char c2 = text.charAt(i + 1);
+        if (c1 == '\n' || c1 == '\r' || c2 == '\n' || c2 == '\r') {
+            return 0;
+        }
+        int index = this.metric.indexOf(BigramCounter.pack(c1, c2));
+        for (int lang = 0; lang < scores.length; lang++) {
+            scores[lang] += sign * this.logProbabilities[lang][index];
+        }
+        return 1;
+    }
+
+    /**
+     * The language with the highest score.
+     * @param scores The score of each language.
+     * @return The language.
+     */
+    private Language best(double[] scores) {
+        int best = 0;
+        for (int lang = 1; lang < scores.length; lang++) {
+            if (scores[lang] > scores[best]) {
+                best = lang;
+            }
+        }
+        return this.languages[best];
+    }
+}
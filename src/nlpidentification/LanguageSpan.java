@@ -0,0 +1,35 @@
+package nlpidentification;
+
+/**
+ * A span of text identified as a single language.
+ * @author DominicWild
+ */
+public class LanguageSpan {
+
+    private final int start;            //The index of the first character of the span.
+    private final int end;              //The index after the last character of the span.
+    private final Language lang;        //The language of the span.
+
+    public LanguageSpan(int start, int end, Language lang) {
+        this.start = start;
+        this.end = end;
+        this.lang = lang;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    public Language getLang() {
+        return lang;
+    }
+
+    @Override
+    public String toString() {
+        return start + "-" + end + " " + lang;
+    }
+}
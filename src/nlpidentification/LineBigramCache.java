@@ -0,0 +1,91 @@
+package nlpidentification;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The bigram counts and word count of every line of a corpus, counted once so that any subset of lines can be profiled by summing counts rather than processing the text again.
+ * The counts of every line are held one after another in shared primitive arrays, with an offset marking where each line's counts begin.
+ * @author DominicWild
+ */
+public class LineBigramCache {
+
+    private final String[] lines;       //The text of each line, for lines that are only partly used.
+    private final int[] words;          //The number of words in each line.
+    private final int[] offsets;        //Where each line's counts begin, with a final entry marking the end.
+    private final int[] keys;           //The packed bigrams of every line.
+    private final int[] counts;         //The count of each packed bigram within its line.
+
+    /**
+     * Counts the bigrams and words of every passed line.
+     * @param corpusLines The lines of the corpus.
+     */
+    public LineBigramCache(List<String> corpusLines) {
+        int numLines = corpusLines.size();
+        this.lines = corpusLines.toArray(new String[numLines]);
+        this.words = new int[numLines];
+        this.offsets = new int[numLines + 1];
+
+        BigramScanner scanner = new BigramScanner();
+        BigramCounter lineCounter = new BigramCounter();
+        int[] allKeys = new int[1024];
+        int[] allCounts = new int[1024];
+        int total = 0;
+        for (int line = 0; line < numLines; line++) {
+            lineCounter.clear();
+            this.words[line] = scanner.scan(this.lines[line], Integer.MAX_VALUE, lineCounter::add);
+            if (total + lineCounter.size() > allKeys.length) { //Make room for this line's counts.
+                int newLength = Math.max(allKeys.length * 2, total + lineCounter.size());
+                allKeys = Arrays.copyOf(allKeys, newLength);
+                allCounts = Arrays.copyOf(allCounts, newLength);
+            }
+            for (int slot = 0; slot < lineCounter.capacity(); slot++) {
+                if (lineCounter.countAt(slot) != 0) {
+                    allKeys[total] = lineCounter.keyAt(slot);
+                    allCounts[total] = lineCounter.countAt(slot);
+                    total++;
+                }
+            }
+            this.offsets[line + 1] = total;
+        }
+        this.keys = Arrays.copyOf(allKeys, total);
+        this.counts = Arrays.copyOf(allCounts, total);
+    }
+
+    /**
+     * Adds the bigram counts of a line onto a counter.
+     * @param counter The counter to add onto.
+     * @param line The index of the line.
+     */
+    public void addTo(BigramCounter counter, int line) {
+        for (int i = this.offsets[line]; i < this.offsets[line + 1]; i++) {
+            counter.add(this.keys[i], this.counts[i]);
+        }
+    }
+
+    /**
+     * The number of lines cached.
+     * @return The number of lines.
+     */
+    public int size() {
+        return this.lines.length;
+    }
+
+    /**
+     * The number of words in a line.
+     * @param line The index of the line.
+     * @return The number of words.
+     */
+    public int words(int line) {
+        return this.words[line];
+    }
+
+    /**
+     * The text of a line.
+     * @param line The index of the line.
+     * @return The line.
+     */
+    public String line(int line) {
+        return this.lines[line];
+    }
+}
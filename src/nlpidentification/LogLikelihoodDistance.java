@@ -0,0 +1,40 @@
+package nlpidentification;
+
+/**
+ * The average negative log likelihood of a test set's bigrams under a training set's bigram probabilities.
+ * Probabilities are add-one smoothed over the alphabet, so bigrams unseen in training are unlikely rather than impossible.
+ * @author DominicWild
+ */
+public class LogLikelihoodDistance extends DenseDistance {
+
+    /**
+     * Creates the metric over the alphabet of the passed training sets.
+     * @param trainingSets The training sets that will be measured against.
+     */
+    public LogLikelihoodDistance(DataSet... trainingSets) {
+        super(trainingSets);
+    }
+
+    /**
+     * Turns the training frequencies into smoothed log probabilities.
+     * @param frequencies The frequency of every bigram of the training set.
+     * @return The log probability of every bigram.
+     */
+    @Override
+    protected float[] prepareTrain(float[] frequencies) {
+        double total = sum(frequencies) + frequencies.length;
+        for (int i = 0; i < frequencies.length; i++) {
+            frequencies[i] = (float) Math.log((frequencies[i] + 1) / total);
+        }
+        return frequencies;
+    }
+
+    @Override
+    protected double compare(float[] train, SparseVector test) {
+        double count = test.sum();
+        if (count == 0) { //Nothing to compare, as far from everything as possible.
+            return Double.MAX_VALUE;
+        }
+        return -test.dot(train) / count;
+    }
+}
@@ -3,15 +3,20 @@ package nlpidentification;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Objects;
-import java.util.StringTokenizer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -22,22 +27,106 @@ import java.util.logging.Logger;
 public class NLPIdentification {
     
     private static final int TRIALS_HOME_MIN_SIZE = 1000;       //Number of repeated runs to verify minimum word size
+    private static final int MIN_SEQUENTIAL_TRIALS = 30;        //Number of runs before a sequential test may stop early
+    private static final double CONFIDENCE_Z = 2.576;           //Standard score of the 99% confidence bounds used to stop early
     //Directory organization constants
     private static final String ROOT_DIR = "LanguageData";
     private static final String FREQ_DIR = ROOT_DIR + "/BigramFrequencyTables/";
     private static final String CROSS_VALIDATION_DIR = ROOT_DIR + "/CrossValidation/";
     private static final String HOME_MIN_TEST_DIR = ROOT_DIR + "/MiniumTestSample/";
     private static final String VAR_TRAINING_SIZE_DIR = ROOT_DIR + "/VariableTrainingSize/";
+    private static final int BULK_IN_FLIGHT_BYTES = 64 * 1024 * 1024;   //Limit on the bytes of files being classified at once in bulk.
+    private static final long SHARD_TIMEOUT_MILLIS = 60 * 60 * 1000;     //Limit on how long to wait for shard workers.
+    private static final int SEGMENT_WINDOW = 200;                       //Number of bigrams judged at once when segmenting a document.
+    private static final int STREAM_IN_FLIGHT = 256;                     //Limit on documents read from standard input but not yet written.
+    private static final long STORE_REFRESH_MILLIS = 1000;               //How often to check the profile store for a newly published version.
+    private static final int CACHE_ENTRIES = 10000;                      //Limit on classification results cached for repeated documents.
+    private static final long CACHE_MAX_AGE_MILLIS = 60 * 60 * 1000;     //How long a cached classification result stays valid.
     private static PrintWriter results;                 //Writer for our results file.
+    private DistanceMetric metric = new RankDistance(); //The metric used to measure test samples against training sets.
 
     /**
      * @param args the command line arguments
      */
     public static void main(String[] args) {
-        NLPIdentification nlpIdentification = new NLPIdentification();
+        String mode = args.length > 0 ? args[0] : "";
+        try {
+            switch (mode) {
+                case "bulk": //Classify every file within a directory tree, optionally naming the distance metric: bulk <directory> <manifest> [metric]
+                    DataSet[] trainingSets = trainingSets();
+                    NLPIdentification classifier = new NLPIdentification(false);
+                    if (args.length > 3) {
+                        classifier.setDistanceMetric(distanceMetric(args[3], trainingSets));
+                    }
+                    new BulkClassifier(classifier, BULK_IN_FLIGHT_BYTES, trainingSets).classifyTree(Paths.get(args[1]), Paths.get(args[2]));
+                    break;
+                case "shard-worker": //Count one shard of a corpus: shard-worker <corpus> <shard> <shards> <shared directory>
+                    ShardedProfileBuilder.runWorker(Paths.get(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]), Paths.get(args[4]));
+                    break;
+                case "shard-build": //Count a corpus with a local worker per shard: shard-build <corpus> <language> <shards> <shared directory>
+                    ShardedProfileBuilder.buildLocally(Paths.get(args[1]), Language.valueOf(args[2]), Integer.parseInt(args[3]), Paths.get(args[4]))
+                            .printTable(Paths.get(args[4], args[2] + "Freq").toString());
+                    break;
+                case "shard-threads": //Count a corpus with a thread per shard within this process: shard-threads <corpus> <language> <shards> <output directory>
+                    ShardedProfileBuilder.buildInThreads(Paths.get(args[1]), Language.valueOf(args[2]), Integer.parseInt(args[3]))
+                            .printTable(Paths.get(args[4], args[2] + "Freq").toString());
+                    break;
+                case "shard-reduce": //Merge shards counted by workers elsewhere: shard-reduce <corpus> <language> <shards> <shared directory>
+                    ShardedProfileBuilder.reduce(Paths.get(args[1]), Language.valueOf(args[2]), Integer.parseInt(args[3]), Paths.get(args[4]), SHARD_TIMEOUT_MILLIS)
+                            .printTable(Paths.get(args[4], args[2] + "Freq").toString());
+                    break;
+                case "segment": //Split a mixed language document into spans of one language: segment <file> [window size]
+                    String text = new String(Files.readAllBytes(Paths.get(args[1])), Charset.defaultCharset());
+                    LanguageSegmenter segmenter = new LanguageSegmenter(args.length > 2 ? Integer.parseInt(args[2]) : SEGMENT_WINDOW, trainingSets());
+                    for (LanguageSpan span : segmenter.segment(text)) {
+                        System.out.println(span);
+                    }
+                    break;
+                case "stream": //Classify each line of standard input as a document, in order, optionally naming the distance metric: stream [metric]
+                    DataSet[] streamTrainingSets = trainingSets();
+                    NLPIdentification streamClassifier = new NLPIdentification(false);
+                    if (args.length > 1) {
+                        streamClassifier.setDistanceMetric(distanceMetric(args[1], streamTrainingSets));
+                    }
+                    PrintWriter out = new PrintWriter(new OutputStreamWriter(System.out, Charset.defaultCharset()));
+                    new StreamClassifier(new ClassificationCache(streamClassifier, CACHE_ENTRIES, CACHE_MAX_AGE_MILLIS), STREAM_IN_FLIGHT, streamTrainingSets)
+                            .classifyStream(new BufferedReader(new InputStreamReader(System.in, Charset.defaultCharset())), out);
+                    out.flush();
+                    break;
+                case "store-publish": //Publish a new version of the shared profile store from the training corpora: store-publish <store file>
+                    System.out.println("Published version " + ProfileStore.publish(Paths.get(args[1]), trainingSets()) + " of " + args[1]);
+                    break;
+                case "store-stream": //Classify standard input against the shared profile store, following newly published versions: store-stream <store file>
+                    ProfileStore store = new ProfileStore(Paths.get(args[1]), STORE_REFRESH_MILLIS);
+                    PrintWriter storeOut = new PrintWriter(new OutputStreamWriter(System.out, Charset.defaultCharset()));
+                    new StreamClassifier(new ClassificationCache(new NLPIdentification(false), CACHE_ENTRIES, CACHE_MAX_AGE_MILLIS), STREAM_IN_FLIGHT, store::getDataSets)
+                            .classifyStream(new BufferedReader(new InputStreamReader(System.in, Charset.defaultCharset())), storeOut);
+                    storeOut.flush();
+                    break;
+                default:
+                    NLPIdentification nlpIdentification = new NLPIdentification();
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(NLPIdentification.class.getName()).log(Level.SEVERE, "Error running " + mode, ex);
+            System.exit(1); //Lets a calling script, or the process that started a shard worker, see that the mode failed.
+        } catch (InterruptedException ex) {
+            Logger.getLogger(NLPIdentification.class.getName()).log(Level.SEVERE, "Interrupted running " + mode, ex);
+            System.exit(1);
+        }
     }
 
     public NLPIdentification() {
+        this(true);
+    }
+
+    /**
+     * Creates the identifier, optionally running every experiment.
+     * @param runExperiments Whether to run the experiments, otherwise the identifier is only used to classify.
+     */
+    public NLPIdentification(boolean runExperiments) {
+        if (!runExperiments) {
+            return;
+        }
         //Make necessary directories if they don't exist
         new File(ROOT_DIR).mkdir();
         new File(FREQ_DIR).mkdir();
@@ -53,59 +142,128 @@ public class NLPIdentification {
         //Flush any potential remaining data and close print writer.
         results.flush();
         results.close();
+        StageProfiler.checkBudgets(); //Fail the run if a stage went over its budget.
     }
 
     public void execute() throws FileNotFoundException {
-        //Remove tags from necessary files
-        removeTags("englishTagged.txt", "english.txt");
-        removeTags("czechTagged.txt", "czech.txt");
-        //Split into training and test data.
-        fileSplit(0.9, "english.txt", "englishTrain.txt", "englishTest.txt");
-        fileSplit(0.9, "czech.txt", "czechTrain.txt", "czechTest.txt");
-        fileSplit(0.9, "slovenian.txt", "slovenianTrain.txt", "slovenianTest.txt");
-        fileSplit(0.9, "german.txt", "germanTrain.txt", "germanTest.txt");
-        //Create dataset training objects used throughout testing.
-        DataSet englishTrain = new DataSet("englishTrain.txt", Language.ENG);
-        DataSet czechTrain = new DataSet("czechTrain.txt", Language.CZH);
-        DataSet slovenianTrain = new DataSet("slovenianTrain.txt", Language.SLV);
-        DataSet germanTrain = new DataSet("germanTrain.txt", Language.GER);
-        //Print the bigram tables to disk for analysis
-        englishTrain.printTable(FREQ_DIR + "englishFreq");
-        czechTrain.printTable(FREQ_DIR + "czechFreq");
-        slovenianTrain.printTable(FREQ_DIR + "slovenianFreq");
-        germanTrain.printTable(FREQ_DIR + "germanFreq");
         //Make unique results file
         Date runTime = new Date(System.currentTimeMillis());
         results = new PrintWriter("Results" + new SimpleDateFormat("yyyy-MM-dd-SSS").format(runTime) + ".txt");
         //Initialize constants for experiments
         final int folds = 10;
         final int varTrainRuns = 100;
-        int minWords = 0;
-        double validatePercentage = 0;
         final double acceptPercentage = 0.95;
+        //Every task runs as soon as the files and training sets it needs are ready.
+        ExperimentScheduler scheduler = new ExperimentScheduler(Runtime.getRuntime().availableProcessors(), this::logPrintln);
+        //Remove tags from necessary files
+        CompletableFuture<Void> englishUntagged = scheduler.execute("Remove English tags", () -> removeTags("englishTagged.txt", "english.txt"));
+        CompletableFuture<Void> czechUntagged = scheduler.execute("Remove Czech tags", () -> removeTags("czechTagged.txt", "czech.txt"));
+        //Split into training and test data.
+        CompletableFuture<Void> englishSplit = scheduler.execute("Split English", () -> fileSplit(0.9, "english.txt", "englishTrain.txt", "englishTest.txt"), englishUntagged);
+        CompletableFuture<Void> czechSplit = scheduler.execute("Split Czech", () -> fileSplit(0.9, "czech.txt", "czechTrain.txt", "czechTest.txt"), czechUntagged);
+        CompletableFuture<Void> slovenianSplit = scheduler.execute("Split Slovenian", () -> fileSplit(0.9, "slovenian.txt", "slovenianTrain.txt", "slovenianTest.txt"));
+        CompletableFuture<Void> germanSplit = scheduler.execute("Split German", () -> fileSplit(0.9, "german.txt", "germanTrain.txt", "germanTest.txt"));
+        //Create dataset training objects used throughout testing, printing the bigram tables to disk for analysis.
+        CompletableFuture<DataSet> englishTrain = scheduler.submit("Train English", () -> train("englishTrain.txt", Language.ENG, "englishFreq"), englishSplit);
+        CompletableFuture<DataSet> czechTrain = scheduler.submit("Train Czech", () -> train("czechTrain.txt", Language.CZH, "czechFreq"), czechSplit);
+        CompletableFuture<DataSet> slovenianTrain = scheduler.submit("Train Slovenian", () -> train("slovenianTrain.txt", Language.SLV, "slovenianFreq"), slovenianSplit);
+        CompletableFuture<DataSet> germanTrain = scheduler.submit("Train German", () -> train("germanTrain.txt", Language.GER, "germanFreq"), germanSplit);
+        //Cross validation, each against the training sets of the other languages.
+        CompletableFuture<Integer> englishValidate = scheduler.submit("Cross validate English",
+                () -> crossValidate(folds, "english.txt", Language.ENG, czechTrain.join(), slovenianTrain.join(), germanTrain.join()),
+                englishUntagged, czechTrain, slovenianTrain, germanTrain);
+        CompletableFuture<Integer> germanValidate = scheduler.submit("Cross validate German",
+                () -> crossValidate(folds, "german.txt", Language.GER, czechTrain.join(), slovenianTrain.join(), englishTrain.join()),
+                czechTrain, slovenianTrain, englishTrain);
+        CompletableFuture<Integer> slovenianValidate = scheduler.submit("Cross validate Slovenian",
+                () -> crossValidate(folds, "slovenian.txt", Language.SLV, czechTrain.join(), englishTrain.join(), germanTrain.join()),
+                czechTrain, englishTrain, germanTrain);
+        CompletableFuture<Integer> czechValidate = scheduler.submit("Cross validate Czech",
+                () -> crossValidate(folds, "czech.txt", Language.CZH, englishTrain.join(), slovenianTrain.join(), germanTrain.join()),
+                czechUntagged, englishTrain, slovenianTrain, germanTrain);
+        //Variable sized training sets, each needing its own test split.
+        CompletableFuture<Integer> englishVarTrain = scheduler.submit("Variable training English",
+                () -> variableTrainRun("english.txt", new DataSet("englishTest.txt", Language.ENG), varTrainRuns, czechTrain.join(), slovenianTrain.join(), germanTrain.join()),
+                englishSplit, czechTrain, slovenianTrain, germanTrain);
+        CompletableFuture<Integer> germanVarTrain = scheduler.submit("Variable training German",
+                () -> variableTrainRun("german.txt", new DataSet("germanTest.txt", Language.GER), varTrainRuns, czechTrain.join(), slovenianTrain.join(), englishTrain.join()),
+                germanSplit, czechTrain, slovenianTrain, englishTrain);
+        CompletableFuture<Integer> slovenianVarTrain = scheduler.submit("Variable training Slovenian",
+                () -> variableTrainRun("slovenian.txt", new DataSet("slovenianTest.txt", Language.SLV), varTrainRuns, czechTrain.join(), englishTrain.join(), germanTrain.join()),
+                slovenianSplit, czechTrain, englishTrain, germanTrain);
+        CompletableFuture<Integer> czechVarTrain = scheduler.submit("Variable training Czech",
+                () -> variableTrainRun("czech.txt", new DataSet("czechTest.txt", Language.CZH), varTrainRuns, englishTrain.join(), slovenianTrain.join(), germanTrain.join()),
+                czechSplit, englishTrain, slovenianTrain, germanTrain);
+        //Homing on the minimum test sample, against every training set.
+        CompletableFuture<Integer> englishMinWords = scheduler.submit("Minimum sample English",
+                () -> searchMinimumTestSample("englishTest.txt", Language.ENG, acceptPercentage, englishTrain.join(), czechTrain.join(), slovenianTrain.join(), germanTrain.join()),
+                englishTrain, czechTrain, slovenianTrain, germanTrain);
+        CompletableFuture<Integer> germanMinWords = scheduler.submit("Minimum sample German",
+                () -> searchMinimumTestSample("germanTest.txt", Language.GER, acceptPercentage, englishTrain.join(), czechTrain.join(), slovenianTrain.join(), germanTrain.join()),
+                englishTrain, czechTrain, slovenianTrain, germanTrain);
+        CompletableFuture<Integer> slovenianMinWords = scheduler.submit("Minimum sample Slovenian",
+                () -> searchMinimumTestSample("slovenianTest.txt", Language.SLV, acceptPercentage, englishTrain.join(), czechTrain.join(), slovenianTrain.join(), germanTrain.join()),
+                englishTrain, czechTrain, slovenianTrain, germanTrain);
+        CompletableFuture<Integer> czechMinWords = scheduler.submit("Minimum sample Czech",
+                () -> searchMinimumTestSample("czechTest.txt", Language.CZH, acceptPercentage, englishTrain.join(), czechTrain.join(), slovenianTrain.join(), germanTrain.join()),
+                englishTrain, czechTrain, slovenianTrain, germanTrain);
+
+        try {
+            CompletableFuture.allOf(englishValidate, germanValidate, slovenianValidate, czechValidate,
+                    englishVarTrain, germanVarTrain, slovenianVarTrain, czechVarTrain,
+                    englishMinWords, germanMinWords, slovenianMinWords, czechMinWords).join();
+        } catch (CompletionException ex) {
+            Logger.getLogger(NLPIdentification.class.getName()).log(Level.SEVERE, "Experiment run did not complete.", ex);
+            return;
+        } finally {
+            scheduler.shutdown();
+        }
+        //Summarise the results in experiment order, now that every task is done.
         logPrintln("--------------------------------Cross Validation--------------------------------");
-        validatePercentage = Math.round(crossValidate(folds,"english.txt",Language.ENG,czechTrain, slovenianTrain, germanTrain)/folds*100.0);
-        logPrintln("English Validation Pass Rate with " + folds + " folds: " + validatePercentage + "%");
-        validatePercentage = Math.round(crossValidate(folds,"german.txt",Language.GER,czechTrain, slovenianTrain, englishTrain)/folds*100.0);
-        logPrintln("German Validation Pass Rate with " + folds + " folds: " + validatePercentage + "%");
-        validatePercentage = Math.round(crossValidate(folds,"slovenian.txt",Language.SLV,czechTrain, englishTrain, germanTrain)/folds*100.0);
-        logPrintln("Slovenian Validation Pass Rate with " + folds + " folds: " + validatePercentage + "%");
-        validatePercentage = Math.round(crossValidate(folds,"czech.txt",Language.CZH,englishTrain, slovenianTrain, germanTrain)/folds*100.0);
-        logPrintln("Czech Validation Pass Rate with " + folds + " folds: " + validatePercentage + "%");
+        logPrintln("English Validation Pass Rate with " + folds + " folds: " + Math.round(englishValidate.join() / folds * 100.0) + "%");
+        logPrintln("German Validation Pass Rate with " + folds + " folds: " + Math.round(germanValidate.join() / folds * 100.0) + "%");
+        logPrintln("Slovenian Validation Pass Rate with " + folds + " folds: " + Math.round(slovenianValidate.join() / folds * 100.0) + "%");
+        logPrintln("Czech Validation Pass Rate with " + folds + " folds: " + Math.round(czechValidate.join() / folds * 100.0) + "%");
         logPrintln("--------------------------------Variable Sized Training Sets Fails--------------------------------");
-        variableTrainRun("english.txt", new DataSet("englishTest.txt", Language.ENG), varTrainRuns, czechTrain, slovenianTrain, germanTrain);
-        variableTrainRun("german.txt", new DataSet("germanTest.txt", Language.GER), varTrainRuns, czechTrain, slovenianTrain, englishTrain);
-        variableTrainRun("slovenian.txt", new DataSet("slovenianTest.txt", Language.SLV), varTrainRuns, czechTrain, englishTrain, germanTrain);
-        variableTrainRun("czech.txt", new DataSet("czechTest.txt", Language.CZH), varTrainRuns, englishTrain, slovenianTrain, germanTrain);
+        logPrintln("English had " + englishVarTrain.join() + " failed predictions out of " + varTrainRuns + " runs.");
+        logPrintln("German had " + germanVarTrain.join() + " failed predictions out of " + varTrainRuns + " runs.");
+        logPrintln("Slovenian had " + slovenianVarTrain.join() + " failed predictions out of " + varTrainRuns + " runs.");
+        logPrintln("Czech had " + czechVarTrain.join() + " failed predictions out of " + varTrainRuns + " runs.");
         logPrintln("--------------------------------Homing on Minimum Size Test That Can Be Predicted--------------------------------");
-        minWords = calculateMinimumTestSample("englishTest.txt", Language.ENG, acceptPercentage, englishTrain, czechTrain, slovenianTrain, germanTrain);
-        logPrintln("For English we can predict " + minWords + " words minimum with the training model that we have." );
-        minWords = calculateMinimumTestSample("germanTest.txt", Language.GER, acceptPercentage, englishTrain, czechTrain, slovenianTrain, germanTrain);
-        logPrintln("For German we can predict " + minWords + " words minimum with the training model that we have." );
-        minWords = calculateMinimumTestSample("slovenianTest.txt", Language.SLV, acceptPercentage, englishTrain, czechTrain, slovenianTrain, germanTrain);
-        logPrintln("For Slovenian we can predict " + minWords + " words minimum with the training model that we have." );
-        minWords = calculateMinimumTestSample("czechTest.txt", Language.CZH, acceptPercentage, englishTrain, czechTrain, slovenianTrain, germanTrain);
-        logPrintln("For Czech we can predict " + minWords + " words minimum with the training model that we have." );
+        logPrintln("For English we can predict " + englishMinWords.join() + " words minimum with the training model that we have." );
+        logPrintln("For German we can predict " + germanMinWords.join() + " words minimum with the training model that we have." );
+        logPrintln("For Slovenian we can predict " + slovenianMinWords.join() + " words minimum with the training model that we have." );
+        logPrintln("For Czech we can predict " + czechMinWords.join() + " words minimum with the training model that we have." );
+        if (StageProfiler.ENABLED) {
+            logPrintln("--------------------------------Allocation and Garbage Collection by Stage--------------------------------");
+            logPrintln(StageProfiler.report());
+        }
+    }
+
+    /**
+     * Creates the training sets of every language from their training corpus files.
+     * @return The training sets.
+     */
+    private static DataSet[] trainingSets() {
+        return new DataSet[]{
+            new DataSet("englishTrain.txt", Language.ENG),
+            new DataSet("czechTrain.txt", Language.CZH),
+            new DataSet("slovenianTrain.txt", Language.SLV),
+            new DataSet("germanTrain.txt", Language.GER)
+        };
+    }
+
+    /**
+     * Creates a training set from a corpus file, printing its bigram table to disk for analysis.
+     * @param corpusFile The corpus file to train on.
+     * @param lang The language of the corpus file.
+     * @param freqTableName The name of the bigram table to print, within the frequency table directory.
+     * @return The training set.
+     */
+    private DataSet train(String corpusFile, Language lang, String freqTableName) {
+        DataSet trainSet = new DataSet(corpusFile, lang);
+        trainSet.printTable(FREQ_DIR + freqTableName);
+        return trainSet;
     }
     
     
@@ -186,6 +344,105 @@ public class NLPIdentification {
         return previousLimit; //Return the limit that didn't fail
     }
 
+    /**
+     * Calculates the minimum amount of words that can be correctly identified within a minimum percentage of correctness.
+     * Each size is tested sequentially, stopping as soon as a confidence bound on its accuracy clears or misses the target. Once a size fails, the sizes between it and the last passing size are bisected.
+     * @param sampleFile The corpus file to use for this test.
+     * @param expectedLanguage The expected language of the corpus.
+     * @param accuracyTarget The target accuracy we must maintain.
+     * @param trainSets All other training sets to test against.
+     * @return The minimum number of words we can correctly identify.
+     */
+    public int searchMinimumTestSample(String sampleFile, Language expectedLanguage, double accuracyTarget, DataSet... trainSets) {
+
+        RandomDataSet sampleSet = new RandomDataSet(sampleFile, expectedLanguage);
+        int passing = 0;        //The smallest limit known to meet the target, 0 if none do.
+        int failing;            //The largest limit known to miss the target.
+
+        try (PrintWriter writer = new PrintWriter(HOME_MIN_TEST_DIR + expectedLanguage + "MinTestSample.csv")) {
+            int currentLimit = sampleSet.getWordCount();
+            while (currentLimit > 0 && this.meetsAccuracyTarget(sampleSet, currentLimit, accuracyTarget, writer, trainSets)) { //Halve while we maintain our target.
+                passing = currentLimit;
+                currentLimit /= 2;
+            }
+            failing = currentLimit;
+            while (passing - failing > 1) { //Bisect between the failing and passing limits.
+                int middle = (passing + failing) >>> 1;
+                if (this.meetsAccuracyTarget(sampleSet, middle, accuracyTarget, writer, trainSets)) {
+                    passing = middle;
+                } else {
+                    failing = middle;
+                }
+            }
+        } catch (FileNotFoundException ex) {
+            Logger.getLogger(NLPIdentification.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return passing;
+    }
+
+    /**
+     * Tests whether random samples of a size are predicted correctly at the target accuracy. Trials run until a confidence bound on the accuracy settles the result, or the trial limit is reached.
+     * @param sampleSet The sample to draw random sets from, labeled with its expected language.
+     * @param wordLimit The number of words in each random set.
+     * @param accuracyTarget The target accuracy we must maintain.
+     * @param writer The writer to log each prediction to.
+     * @param trainSets All training sets to test against.
+     * @return Whether the target accuracy was met.
+     */
+    private boolean meetsAccuracyTarget(RandomDataSet sampleSet, int wordLimit, double accuracyTarget, PrintWriter writer, DataSet... trainSets) {
+        Language expectedLanguage = sampleSet.getDataSetLanguage();
+        int correct = 0;
+        int trials = 0;
+        Boolean met = null;     //Set once the confidence bounds settle the result.
+
+        while (met == null && trials < TRIALS_HOME_MIN_SIZE) {
+            sampleSet.newRandomSet(wordLimit);
+            Language result = this.predictSampleLanguage(sampleSet, writer, trainSets);
+            if (Objects.equals(result, expectedLanguage)) {
+                correct++;
+            }
+            trials++;
+            if (trials >= MIN_SEQUENTIAL_TRIALS) {
+                double centre = (double) correct / trials;
+                double margin = wilsonMargin(centre, trials);
+                double adjusted = wilsonCentre(centre, trials);
+                if (adjusted - margin >= accuracyTarget) { //Even the lower bound clears the target.
+                    met = true;
+                } else if (adjusted + margin < accuracyTarget) { //Even the upper bound misses the target.
+                    met = false;
+                }
+            }
+        }
+        double accuracy = (double) correct / trials;
+        if (met == null) {
+            met = accuracy >= accuracyTarget;
+        }
+        logPrintln("[" + expectedLanguage + "]" + "With " + wordLimit + " words we get " + accuracy * 100 + "% over " + trials + " trials");
+        return met;
+    }
+
+    /**
+     * The centre of the Wilson score interval for an observed proportion.
+     * @param proportion The observed proportion of successes.
+     * @param trials The number of trials observed.
+     * @return The centre of the interval.
+     */
+    private static double wilsonCentre(double proportion, int trials) {
+        double z2 = CONFIDENCE_Z * CONFIDENCE_Z;
+        return (proportion + z2 / (2 * trials)) / (1 + z2 / trials);
+    }
+
+    /**
+     * The half width of the Wilson score interval for an observed proportion.
+     * @param proportion The observed proportion of successes.
+     * @param trials The number of trials observed.
+     * @return The half width of the interval.
+     */
+    private static double wilsonMargin(double proportion, int trials) {
+        double z2 = CONFIDENCE_Z * CONFIDENCE_Z;
+        return CONFIDENCE_Z * Math.sqrt(proportion * (1 - proportion) / trials + z2 / (4.0 * trials * trials)) / (1 + z2 / trials);
+    }
+
     /**
      * Removes tags from a file. Therefore only maintaining the textual content between tags.
      * @param fileName The name of the file to remove tags from.
@@ -193,7 +450,7 @@ public class NLPIdentification {
      */
     private void removeTags(String fileName, String newFileName) {
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(fileName));) {
+        try (BufferedReader reader = CorpusReader.open(fileName);) {
             FileWriter writer = new FileWriter(newFileName);
             String line;
             while ((line = reader.readLine()) != null) {
@@ -216,38 +473,47 @@ public class NLPIdentification {
      * @param testSample The test sample to use on all the runs.
      * @param numRuns The number of times we should run this. This also determines the increments of how fast the test size grows.
      * @param otherTrainSets All the other training sets to test against.
+     * @return The number of runs where the language was predicted incorrectly.
      */
-    public void variableTrainRun(String fileName, DataSet testSample, int numRuns, DataSet... otherTrainSets) {
+    public int variableTrainRun(String fileName, DataSet testSample, int numRuns, DataSet... otherTrainSets) {
 
-        int wordCount = numberOfWordsInFile(fileName);
-        int step = Math.floorDiv(wordCount, numRuns);
         Language langExpected = testSample.getDataSetLanguage();
+        TrainingSweep sweep;    //Grows one training set over the corpus, rather than building each size from scratch.
+        try {
+            sweep = new TrainingSweep(fileName, langExpected);
+        } catch (IOException ex) {
+            Logger.getLogger(NLPIdentification.class.getName()).log(Level.SEVERE, "Error reading " + fileName, ex);
+            return 0;
+        }
+        int step = Math.floorDiv(sweep.getTotalWords(), numRuns);
         ArrayList<DataSet> trainSets = new ArrayList<>();
         ArrayList<DistanceLabel> distanceMetrics = new ArrayList<>();
+        int failures = 0;
         try (PrintWriter writer = new PrintWriter(VAR_TRAINING_SIZE_DIR + langExpected + "VariableSizeTrainRuns.csv")) {
             
             for (DataSet trainSet : otherTrainSets) { //Compute distance labels for all sets we're only need to test once. We do this so that we don't need to recompute them on every iteration.
                 trainSets.add(trainSet);
-                DistanceLabel label = new DistanceLabel(trainSet.getDataSetLanguage(), determineDiffValue(trainSet, testSample));
+                DistanceLabel label = new DistanceLabel(trainSet.getDataSetLanguage(), this.distance(trainSet, testSample));
                 distanceMetrics.add(label);
                 csvLog(trainSet, testSample, label, writer);
             }
 
             for (int i = step; i < step * numRuns; i += step) { //i represents the number of words we take per iteration.
-                DataSet trainSet = new RandomDataSet(fileName, langExpected, i);
-                DistanceLabel label = new DistanceLabel(trainSet.getDataSetLanguage(), determineDiffValue(trainSet, testSample));
+                DataSet trainSet = sweep.grow(i);
+                DistanceLabel label = new DistanceLabel(trainSet.getDataSetLanguage(), this.distance(trainSet, testSample));
                 csvLog(trainSet, testSample, label, writer);
                 distanceMetrics.add(label); //Add the label, use it for prediction, then remove it for the next iteration.
                 Language predicted = this.classifyLanguage(distanceMetrics);
                 distanceMetrics.remove(label);
                 if (predicted != langExpected) {
+                    failures++;
                     logPrintln(langExpected + " model set with " + trainSet.getWordCount() + " words failed predicting " + predicted + " instead.");
                 }
             }
         } catch (FileNotFoundException ex) {
             Logger.getLogger(NLPIdentification.class.getName()).log(Level.SEVERE, null, ex);
         }
-
+        return failures;
     }
 
     /**
@@ -257,11 +523,27 @@ public class NLPIdentification {
      * @param label The resulting DistanceLabel, containing the distance metric to store.
      * @param writer The writer to the CSV file we want to store this result in.
      */
+    @SuppressWarnings("try") //The scope only marks the stage.
     public void csvLog(DataSet trainSet, DataSet testSet, DistanceLabel label, PrintWriter writer) {
-        writer.write(testSet.getWordCount() + "," + testSet.getDataSetLanguage() + ","
-                + label.getRankDistance() + ","
-                + trainSet.getDataSetLanguage() + "," + trainSet.getWordCount()
-                + "\n");
+        try (StageProfiler.Scope stage = StageProfiler.enter(StageProfiler.Stage.CSV_LOG)) {
+            writer.write(testSet.getWordCount() + "," + testSet.getDataSetLanguage() + ","
+                    + label.formatDistance() + ","
+                    + trainSet.getDataSetLanguage() + "," + trainSet.getWordCount()
+                    + "\n");
+        }
+    }
+
+    /**
+     * Measures the distance of a test sample from a training set with the current metric.
+     * @param trainSet The training set.
+     * @param testSample The test sample.
+     * @return The distance.
+     */
+    @SuppressWarnings("try") //The scope only marks the stage.
+    private double distance(DataSet trainSet, DataSet testSample) {
+        try (StageProfiler.Scope stage = StageProfiler.enter(StageProfiler.Stage.DISTANCE)) {
+            return this.metric.distance(trainSet, testSample);
+        }
     }
 
     /**
@@ -272,18 +554,30 @@ public class NLPIdentification {
      * @return The predicted language.
      */
     public Language predictSampleLanguage(DataSet testSample, PrintWriter writer, DataSet... training) {
-        ArrayList<DistanceLabel> distanceMetrics = new ArrayList<>();
-        for (DataSet trainSet : training) {
-            DistanceLabel label = new DistanceLabel(trainSet.getDataSetLanguage(), this.determineDiffValue(trainSet, testSample));
-            distanceMetrics.add(label);
-            //TestSize,TestLabel,Distance,TrainLabel,TrainSize in CSV
-            if (writer != null) {
-                csvLog(trainSet,testSample,label,writer);
+        ArrayList<DistanceLabel> distanceMetrics = this.distanceLabels(testSample, training);
+        if (writer != null) {
+            for (int i = 0; i < training.length; i++) {
+                //TestSize,TestLabel,Distance,TrainLabel,TrainSize in CSV
+                csvLog(training[i], testSample, distanceMetrics.get(i), writer);
             }
         }
         return classifyLanguage(distanceMetrics);
     }
 
+    /**
+     * Calculates the distance of a test sample from each of the passed training sets.
+     * @param testSample The test sample to measure.
+     * @param training The training sets to measure the test sample against.
+     * @return A label for each training set, in the same order as the training sets.
+     */
+    public ArrayList<DistanceLabel> distanceLabels(DataSet testSample, DataSet... training) {
+        ArrayList<DistanceLabel> distanceMetrics = new ArrayList<>();
+        for (DataSet trainSet : training) {
+            distanceMetrics.add(new DistanceLabel(trainSet.getDataSetLanguage(), this.distance(trainSet, testSample)));
+        }
+        return distanceMetrics;
+    }
+
      /**
      * Predicts language of a passed sample and returns the resultant predicted language.
      * @param testSample The test sample we want to predict.
@@ -301,21 +595,21 @@ public class NLPIdentification {
      */
     public Language classifyLanguage(ArrayList<DistanceLabel> labels) {
         Language predictedLanguage = null;
-        int lowestDistance = Integer.MAX_VALUE;     //Allows us to get a guranteed match on first comparison
-        int secondLowest = lowestDistance;
+        double lowestDistance = Double.MAX_VALUE;   //Allows us to get a guranteed match on first comparison
+        double secondLowest = lowestDistance;
         DistanceLabel lowest = null;
 
         for (DistanceLabel label : labels) {
-            if (lowestDistance > label.getRankDistance()) { //Find the label with the lowest distance
+            if (lowestDistance > label.getDistance()) { //Find the label with the lowest distance
                 lowest = label;
-                lowestDistance = lowest.getRankDistance();
+                lowestDistance = lowest.getDistance();
                 predictedLanguage = label.getLang();
             }
         }
         labels.remove(lowest); //Remove this value
         for (DistanceLabel label : labels) { //Find the second lowest
-            if (secondLowest > label.getRankDistance()) {
-                secondLowest = label.getRankDistance();
+            if (secondLowest > label.getDistance()) {
+                secondLowest = label.getDistance();
             }
         }
 
@@ -332,31 +626,39 @@ public class NLPIdentification {
      * @return The distance value between these sets.
      */
     public int determineDiffValue(DataSet trainSet, DataSet testSet) {
-        int diff = 0;
-        int listSize = testSet.getDataset().size();
-        if (listSize > trainSet.getDataset().size()) { //If the test set, is larger than the training set
-            listSize = trainSet.getDataset().size(); //Compare now only the training set number of elements
-            diff += 1000 * (testSet.getDataset().size() - listSize); //Add the difference of things we couldn't compare to, to make a fair comparison.
-        }
+        return RankDistance.outOfPlace(trainSet.getProfile(), testSet.getProfile());
+    }
 
-        //Get our limit of bigram values.
-        ArrayList<BigramUnit> train = new ArrayList<>(trainSet.getDataset().subList(0, listSize));
-        ArrayList<BigramUnit> test = new ArrayList<>(testSet.getDataset().subList(0, listSize));
-
-        int index = 0;
-        for (int i = 0; i < listSize; i++) {
-            BigramUnit unit = test.get(i);
-            index = train.indexOf(unit);
-            if (index == -1) { //If invalid index, add default 1000
-                diff += 1000;
-            } else { //If valid, add the absolute difference
-                diff += Math.abs(i - index);
-            }
-        }
-        return diff;
+    public DistanceMetric getDistanceMetric() {
+        return metric;
     }
 
-    
+    /**
+     * Sets the metric used to measure test samples against training sets when predicting their language.
+     * @param metric The metric to use.
+     */
+    public void setDistanceMetric(DistanceMetric metric) {
+        this.metric = metric;
+    }
+
+    /**
+     * Creates a distance metric by name.
+     * @param name The name of the metric, one of rank, cosine or loglikelihood.
+     * @param trainingSets The training sets that will be measured against.
+     * @return The metric.
+     */
+    public static DistanceMetric distanceMetric(String name, DataSet... trainingSets) {
+        switch (name) {
+            case "rank":
+                return new RankDistance();
+            case "cosine":
+                return new CosineDistance(trainingSets);
+            case "loglikelihood":
+                return new LogLikelihoodDistance(trainingSets);
+            default:
+                throw new IllegalArgumentException("Unknown distance metric " + name);
+        }
+    }
 
     /**
      * Split a file into two parts based on line number. The first file newFileName specified, will take the passed percentage amount of lines from the initial file specified to split.
@@ -371,7 +673,6 @@ public class NLPIdentification {
         }
         try {
             int numLines = DataSet.linesInFile(fileName);
-            File source = new File(fileName);
             File file1 = new File(newFileName1);
             File file2 = new File(newFileName2);
             file1.createNewFile();
@@ -379,7 +680,7 @@ public class NLPIdentification {
 
             int splitLines = (int) Math.floor(numLines * percentage); //Find the line at which we split the files.
 
-            BufferedReader input = new BufferedReader(new FileReader(source));
+            BufferedReader input = CorpusReader.open(fileName);
             PrintWriter writer1 = new PrintWriter(file1); //Writer 1 takes first portion
             PrintWriter writer2 = new PrintWriter(file2);
 
@@ -425,10 +726,10 @@ public class NLPIdentification {
     public int numberOfWordsInFile(String fileName) {
         int count = 0;
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+        try (BufferedReader reader = CorpusReader.open(fileName)) {
             String line = reader.readLine();
             while (line != null) {
-                count += new StringTokenizer(line).countTokens(); //Use string tokenizer to count the words
+                count += BigramScanner.countWords(line);
                 line = reader.readLine();
             }
         } catch (FileNotFoundException ex) {
@@ -445,8 +746,10 @@ public class NLPIdentification {
      * @param output The string to output.
      */
     public void logPrintln(String output){
-        results.println(output);
-        System.out.println(output);
+        synchronized (results) { //Experiments run concurrently, so keep each line whole.
+            results.println(output);
+            System.out.println(output);
+        }
     }
     
 }
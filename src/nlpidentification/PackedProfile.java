@@ -0,0 +1,179 @@
+package nlpidentification;
+
+import java.nio.IntBuffer;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * An immutable, ranked table of bigram frequencies. Bigrams are packed into int keys and held in rank order alongside their frequencies, in parallel buffers of primitives rather than an object per bigram.
+ * The buffers may be backed by arrays on the heap or by a memory mapped file, such as the sections of a ProfileStore.
+ * @author DominicWild
+ */
+public class PackedProfile {
+
+    private final IntBuffer keys;                   //The packed bigram at each rank.
+    private final IntBuffer freqs;                  //The frequency of the bigram at each rank.
+    private volatile IntBuffer index;               //Key and rank + 1 pairs, open addressed by key, built on first lookup.
+
+    /**
+     * Creates a profile from packed bigrams and their frequencies, already in rank order.
+     * @param keys The packed bigram at each rank.
+     * @param freqs The frequency of the bigram at each rank.
+     */
+    public PackedProfile(int[] keys, int[] freqs) {
+        this(IntBuffer.wrap(keys), IntBuffer.wrap(freqs), null);
+    }
+
+    /**
+     * Creates a profile over buffers of packed bigrams and their frequencies, already in rank order.
+     * @param keys The packed bigram at each rank.
+     * @param freqs The frequency of the bigram at each rank.
+     * @param index The lookup index of the bigrams, as built by buildIndex, or null to build it when first needed.
+     */
+    public PackedProfile(IntBuffer keys, IntBuffer freqs, IntBuffer index) {
+        if (keys.limit() != freqs.limit()) {
+            throw new IllegalArgumentException("Every bigram must have a frequency.");
+        }
+        this.keys = keys;
+        this.freqs = freqs;
+        this.index = index;
+    }
+
+    /**
+     * Packs a list of BigramUnits, keeping their order as the rank order.
+     * @param ranked The units in rank order.
+     * @return The packed profile.
+     */
+    public static PackedProfile of(List<BigramUnit> ranked) {
+        int[] keys = new int[ranked.size()];
+        int[] freqs = new int[ranked.size()];
+        for (int i = 0; i < keys.length; i++) {
+            String bigram = ranked.get(i).getBigram();
+            keys[i] = BigramCounter.pack(bigram.charAt(0), bigram.charAt(1));
+            freqs[i] = ranked.get(i).getFreq();
+        }
+        return new PackedProfile(keys, freqs);
+    }
+
+    /**
+     * The number of bigrams within the profile.
+     * @return The number of bigrams.
+     */
+    public int size() {
+        return this.keys.limit();
+    }
+
+    /**
+     * The packed bigram at a rank.
+     * @param rank The rank, 0 being the most frequent.
+     * @return The packed bigram.
+     */
+    public int key(int rank) {
+        return this.keys.get(rank);
+    }
+
+    /**
+     * The frequency of the bigram at a rank.
+     * @param rank The rank, 0 being the most frequent.
+     * @return The frequency.
+     */
+    public int freq(int rank) {
+        return this.freqs.get(rank);
+    }
+
+    /**
+     * Finds the rank of a bigram.
+     * @param key The packed bigram.
+     * @return The rank of the bigram, -1 if it is not within the profile.
+     */
+    public int rankOf(int key) {
+        IntBuffer lookup = this.index;
+        if (lookup == null) { //Built once, racing threads at worst build it twice.
+            lookup = buildIndex(this.keys);
+            this.index = lookup;
+        }
+        int mask = lookup.limit() / 2 - 1;
+        int slot = slotHash(key) & mask;
+        while (lookup.get(2 * slot + 1) != 0) {
+            if (lookup.get(2 * slot) == key) {
+                return lookup.get(2 * slot + 1) - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds the frequency of every bigram onto a counter.
+     * @param counter The counter to add onto.
+     */
+    public void addTo(BigramCounter counter) {
+        for (int rank = 0; rank < this.size(); rank++) {
+            counter.add(this.keys.get(rank), this.freqs.get(rank));
+        }
+    }
+
+    /**
+     * A read only view of the profile as BigramUnits in rank order. Units are created as they are accessed.
+     * @return The view.
+     */
+    public List<BigramUnit> asUnits() {
+        return new AbstractList<BigramUnit>() {
+            @Override
+            public BigramUnit get(int rank) {
+                BigramUnit unit = new BigramUnit(BigramCounter.first(key(rank)), BigramCounter.second(key(rank)));
+                unit.inc(freq(rank));
+                return unit;
+            }
+
+            @Override
+            public int size() {
+                return PackedProfile.this.size();
+            }
+        };
+    }
+
+    /**
+     * Builds the lookup index of packed bigrams, a table of key and rank + 1 pairs open addressed by key, with at least twice as many slots as keys.
+     * @param keys The packed bigram at each rank.
+     * @return The index.
+     */
+    public static IntBuffer buildIndex(IntBuffer keys) {
+        int slots = Integer.highestOneBit(Math.max(keys.limit(), 1)) << 2;
+        int mask = slots - 1;
+        int[] table = new int[slots * 2];
+        for (int rank = 0; rank < keys.limit(); rank++) {
+            int slot = slotHash(keys.get(rank)) & mask;
+            while (table[2 * slot + 1] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[2 * slot] = keys.get(rank);
+            table[2 * slot + 1] = rank + 1;
+        }
+        return IntBuffer.wrap(table);
+    }
+
+    /**
+     * Spreads the characters of a packed bigram across the slots of an index.
+     * @param key The packed bigram.
+     * @return The hash of the key.
+     */
+    private static int slotHash(int key) {
+        int hash = key * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Takes a section of an int buffer, such as the keys, frequencies or index of a profile within a mapped file.
+     * @param buffer The buffer to take from.
+     * @param offset The int the section starts at.
+     * @param length The number of ints in the section.
+     * @return The section.
+     */
+    static IntBuffer slice(IntBuffer buffer, int offset, int length) {
+        IntBuffer section = buffer.duplicate();
+        section.position(offset);
+        section.limit(offset + length);
+        return section.slice();
+    }
+}
@@ -0,0 +1,85 @@
+package nlpidentification;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The unranked bigram counts of part of a corpus, as counted by one worker, along with the words and lines they were counted from.
+ * Partial profiles are exchanged as binary files, to be merged into a full DataSet.
+ * @author DominicWild
+ */
+public class PartialProfile {
+
+    private static final int MAGIC = 0x42475050;    //Marks the start of a partial profile file, "BGPP".
+    private final BigramCounter counts;             //The bigram counts of this part.
+    private final int wordCount;                    //The number of words counted.
+    private final int lineCount;                    //The number of lines counted.
+
+    public PartialProfile(BigramCounter counts, int wordCount, int lineCount) {
+        this.counts = counts;
+        this.wordCount = wordCount;
+        this.lineCount = lineCount;
+    }
+
+    /**
+     * Writes the partial profile to a file. The file is written under a temporary name and then moved into place, so a reader never sees it half written.
+     * @param file The file to write.
+     * @throws IOException If the file could not be written.
+     */
+    public void write(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(this.wordCount);
+            out.writeInt(this.lineCount);
+            out.writeInt(this.counts.size());
+            for (int slot = 0; slot < this.counts.capacity(); slot++) {
+                if (this.counts.countAt(slot) != 0) {
+                    out.writeInt(this.counts.keyAt(slot));
+                    out.writeInt(this.counts.countAt(slot));
+                }
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a partial profile file written by write.
+     * @param file The file to read.
+     * @return The partial profile.
+     * @throws IOException If the file could not be read or is not a partial profile.
+     */
+    public static PartialProfile read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a partial profile.");
+            }
+            int wordCount = in.readInt();
+            int lineCount = in.readInt();
+            int size = in.readInt();
+            BigramCounter counts = new BigramCounter(size * 2);
+            for (int i = 0; i < size; i++) {
+                counts.add(in.readInt(), in.readInt());
+            }
+            return new PartialProfile(counts, wordCount, lineCount);
+        }
+    }
+
+    public BigramCounter getCounts() {
+        return counts;
+    }
+
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+}
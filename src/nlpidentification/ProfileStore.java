@@ -0,0 +1,243 @@
+package nlpidentification;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A store of the training profiles of every language in a single file, mapped read only into memory and shared by every process using it.
+ * Each language's ranked bigrams, frequencies and lookup index are laid out as they are used, so a process classifies straight from the mapped file without copying the profiles onto its heap.
+ * A new version is published by writing a whole new file and moving it into place, processes pick it up the next time they check for it without restarting.
+ * @author DominicWild
+ */
+public class ProfileStore {
+
+    private static final int MAGIC = 0x42475053;    //Marks the start of a profile store file, "BGPS".
+    private static final int HEADER_INTS = 3;       //The magic, version and number of profiles.
+    private static final int ENTRY_INTS = 11;       //The ints describing each profile.
+    private final Path file;                        //The store file.
+    private final long refreshMillis;               //How often to check for a new version.
+    private int version;                            //The version of the profiles held.
+    private DataSet[] dataSets;                     //The profiles held, backed by the mapped file.
+    private long lastChecked;                       //When the store file was last checked for a new version.
+
+    /**
+     * Maps a store file.
+     * @param file The store file.
+     * @param refreshMillis How often to check for a new version of the profiles.
+     * @throws IOException If the file could not be mapped or is not a profile store.
+     */
+    public ProfileStore(Path file, long refreshMillis) throws IOException {
+        this.file = file;
+        this.refreshMillis = refreshMillis;
+        this.load();
+    }
+
+    /**
+     * The profiles of the store, as DataSets backed by the mapped file. Checks for a newer version first, if it has not been checked for recently.
+     * The returned profiles are all of one version, and stay valid after a newer version is published.
+     * @return The profiles of the store.
+     */
+    public synchronized DataSet[] getDataSets() {
+        long now = System.currentTimeMillis();
+        if (now - this.lastChecked >= this.refreshMillis) {
+            try {
+                if (publishedVersion(this.file) != this.version) {
+                    this.load();
+                }
+            } catch (IOException ex) { //Keep serving the profiles held rather than failing to classify.
+                Logger.getLogger(ProfileStore.class.getName()).log(Level.SEVERE, "Error refreshing profiles from " + this.file, ex);
+            }
+            this.lastChecked = now;
+        }
+        return this.dataSets.clone();
+    }
+
+    /**
+     * The profile of a language.
+     * @param lang The language.
+     * @return The profile of the language, null if the store has none.
+     */
+    public DataSet get(Language lang) {
+        for (DataSet dataSet : this.getDataSets()) {
+            if (dataSet.getDataSetLanguage() == lang) {
+                return dataSet;
+            }
+        }
+        return null;
+    }
+
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    /**
+     * Maps the current store file, replacing the profiles held. Every section the file describes is checked to lie within it, so a truncated or foreign file is refused rather than read past its end.
+     * @throws IOException If the file could not be mapped or is not a whole profile store.
+     */
+    private void load() throws IOException {
+        try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ)) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); //Stays valid once the channel is closed.
+            if (mapped.remaining() < 4 * HEADER_INTS || mapped.getInt(0) != MAGIC) {
+                throw new IOException(this.file + " is not a profile store.");
+            }
+            IntBuffer ints = mapped.asIntBuffer();
+            int count = ints.get(2);
+            if (count < 0 || HEADER_INTS + (long) count * ENTRY_INTS > ints.limit()) {
+                throw new IOException(this.file + " is truncated or corrupt.");
+            }
+            DataSet[] loaded = new DataSet[count];
+            for (int i = 0; i < loaded.length; i++) {
+                int entry = HEADER_INTS + i * ENTRY_INTS;
+                String langName = readString(this.section(ints, ints.get(entry), ints.get(entry + 1)));
+                String corpusFile = readString(this.section(ints, ints.get(entry + 2), ints.get(entry + 3)));
+                int size = ints.get(entry + 6);
+                int indexLength = ints.get(entry + 10);
+                if (indexLength < 2 || Integer.bitCount(indexLength) != 1) { //Built by buildIndex as a power of two, which lookups rely on.
+                    throw new IOException(this.file + " is truncated or corrupt.");
+                }
+                Language lang;
+                try {
+                    lang = Language.valueOf(langName);
+                } catch (IllegalArgumentException ex) {
+                    throw new IOException(this.file + " holds a profile of the unknown language " + langName, ex);
+                }
+                PackedProfile profile = new PackedProfile(this.section(ints, ints.get(entry + 7), size), this.section(ints, ints.get(entry + 8), size),
+                        this.section(ints, ints.get(entry + 9), indexLength));
+                loaded[i] = new DataSet(corpusFile, lang, profile, ints.get(entry + 4), ints.get(entry + 5));
+            }
+            this.version = ints.get(1);
+            this.dataSets = loaded;
+        }
+    }
+
+    /**
+     * Publishes a new version of the store, replacing any earlier version. The file is written under a temporary name and then moved into place, so a process never maps it half written.
+     * @param file The store file.
+     * @param dataSets The profiles to store, each labelled with a language.
+     * @return The version published.
+     * @throws IOException If the file could not be written.
+     */
+    public static int publish(Path file, DataSet... dataSets) throws IOException {
+        int version = Files.exists(file) ? publishedVersion(file) + 1 : 1;
+        IntBuffer[] indexes = new IntBuffer[dataSets.length];
+        int total = HEADER_INTS + dataSets.length * ENTRY_INTS;
+        for (int i = 0; i < dataSets.length; i++) {
+            PackedProfile profile = dataSets[i].getProfile();
+            IntBuffer keys = IntBuffer.allocate(profile.size());
+            for (int rank = 0; rank < profile.size(); rank++) {
+                keys.put(rank, profile.key(rank));
+            }
+            indexes[i] = PackedProfile.buildIndex(keys);
+            total += dataSets[i].getDataSetLanguage().name().length() + dataSets[i].getCorpusFileName().length()
+                    + 2 * profile.size() + indexes[i].limit();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(4 * total);
+        IntBuffer ints = buffer.asIntBuffer();
+        ints.put(MAGIC).put(version).put(dataSets.length);
+        int offset = HEADER_INTS + dataSets.length * ENTRY_INTS; //Where the next profile's data starts.
+        for (int i = 0; i < dataSets.length; i++) {
+            PackedProfile profile = dataSets[i].getProfile();
+            String lang = dataSets[i].getDataSetLanguage().name();
+            String corpusFile = dataSets[i].getCorpusFileName();
+            ints.position(HEADER_INTS + i * ENTRY_INTS);
+            ints.put(offset).put(lang.length());
+            ints.put(offset + lang.length()).put(corpusFile.length());
+            ints.put(dataSets[i].getWordCount()).put(dataSets[i].getLineCount()).put(profile.size());
+            int keysOffset = offset + lang.length() + corpusFile.length();
+            ints.put(keysOffset).put(keysOffset + profile.size()).put(keysOffset + 2 * profile.size()).put(indexes[i].limit());
+
+            ints.position(offset);
+            writeString(ints, lang);
+            writeString(ints, corpusFile);
+            for (int rank = 0; rank < profile.size(); rank++) {
+                ints.put(profile.key(rank));
+            }
+            for (int rank = 0; rank < profile.size(); rank++) {
+                ints.put(profile.freq(rank));
+            }
+            ints.put(indexes[i]);
+            offset = ints.position();
+        }
+
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName() + ".", ".tmp"); //Unique to this publisher, so concurrent publishers never write to the same file.
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            Files.deleteIfExists(temp);
+            throw ex;
+        }
+        return version;
+    }
+
+    /**
+     * Reads the version of the store file currently published, without mapping it.
+     * @param file The store file.
+     * @return The version.
+     * @throws IOException If the file could not be read or is not a profile store.
+     */
+    private static int publishedVersion(Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(8);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header) != -1) {
+            }
+        }
+        if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a profile store.");
+        }
+        return header.getInt(4);
+    }
+
+    /**
+     * Writes a string as an int per character.
+     * @param ints The buffer to write to.
+     * @param string The string.
+     */
+    private static void writeString(IntBuffer ints, String string) {
+        for (int i = 0; i < string.length(); i++) {
+            ints.put(string.charAt(i));
+        }
+    }
+
+    /**
+     * Takes a section of the mapped file, checking that it lies within the file.
+     * @param ints The mapped file.
+     * @param offset The int the section starts at.
+     * @param length The number of ints in the section.
+     * @return The section.
+     * @throws IOException If the section does not lie within the file.
+     */
+    private IntBuffer section(IntBuffer ints, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || (long) offset + length > ints.limit()) {
+            throw new IOException(this.file + " is truncated or corrupt.");
+        }
+        return PackedProfile.slice(ints, offset, length);
+    }
+
+    /**
+     * Reads a string written as an int per character.
+     * @param section The section holding the string, an int per character.
+     * @return The string.
+     */
+    private static String readString(IntBuffer section) {
+        char[] chars = new char[section.limit()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) section.get(i);
+        }
+        return new String(chars);
+    }
+}
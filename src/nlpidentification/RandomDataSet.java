@@ -2,11 +2,8 @@
 package nlpidentification;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -16,6 +13,8 @@ import java.util.logging.Logger;
  */
 public class RandomDataSet extends DataSet {
 
+    private LineBigramCache lineCache;      //The counts of each line of the corpus, built on first use.
+
     /**
      * Defines a RandomDataSet from a specified file.
      * @param corpusFile The name of the file to get the data from.
@@ -37,26 +36,43 @@ public class RandomDataSet extends DataSet {
 
     /**
      * Populates RandomDataSet with bigrams up to a specified amount of words from the file. However, gets the data randomly from the file on a line by line basis.
+     * Whole lines are summed from the cached counts of each line, only a line cut short by the word limit is processed as text.
      * @param wordLimit The limit of words to process.
      */
+    @SuppressWarnings("try") //The scope only marks the stage.
     @Override
     protected void populateTable(int wordLimit) {
-        HashMap<String, BigramUnit> freqMap = new HashMap<>();
         if (Integer.MAX_VALUE == wordLimit) { //If we're getting all words, nothing to randomize.
             super.populateTable(wordLimit);
         } else {
-            try {
-                List<String> lines = Files.readAllLines(Paths.get(this.getCorpusFileName()));
+            try (StageProfiler.Scope stage = StageProfiler.enter(StageProfiler.Stage.INGESTION)) {
+                if (this.lineCache == null) { //Count every line once, for reuse by every following random set.
+                    this.lineCache = new LineBigramCache(CorpusReader.readAllLines(this.getCorpusFileName()));
+                }
+                BigramCounter counter = new BigramCounter();
+                HashMap<String, BigramUnit> freqMap = new HashMap<>(); //Holds the bigrams of a line cut short.
+                int[] remaining = new int[this.lineCache.size()]; //Indexes of lines not yet picked.
+                for (int i = 0; i < remaining.length; i++) {
+                    remaining[i] = i;
+                }
+                int numRemaining = remaining.length;
                 int randIndex;      //Random line index
-                String line;
+                int line;
                 boolean stop = false;
-                while (!stop && lines.size() > 0) {
-                    randIndex = (int) (lines.size() * Math.random());
-                    line = lines.get(randIndex);
-                    lines.remove(randIndex); //Remove, so we can't pick the same line again.
-                    stop = this.processLine(freqMap, line, wordLimit);
+                while (!stop && numRemaining > 0) {
+                    randIndex = (int) (numRemaining * Math.random());
+                    line = remaining[randIndex];
+                    remaining[randIndex] = remaining[--numRemaining]; //Remove, so we can't pick the same line again.
+                    if (this.getWordCount() + this.lineCache.words(line) <= wordLimit) { //The whole line fits within the limit.
+                        this.lineCache.addTo(counter, line);
+                        this.setWordCount(this.getWordCount() + this.lineCache.words(line));
+                        this.setLineCount(this.getLineCount() + 1);
+                    } else {
+                        stop = this.processLine(freqMap, this.lineCache.line(line), wordLimit);
+                    }
                 }
-                this.dataset.addAll(freqMap.values());
+                counter.addAll(freqMap.values());
+                this.dataset.addAll(counter.toUnits());
             } catch (IOException ex) {
                 Logger.getLogger(RandomDataSet.class.getName()).log(Level.SEVERE, null, ex);
             }
@@ -73,8 +89,7 @@ public class RandomDataSet extends DataSet {
             this.setLineCount(0);
             this.dataset = new ArrayList<>();
             this.populateTable(wordLimit);
-            this.clean();
-            this.dataset.sort(null);
+            this.manageDataset();
         } else {
             throw new IllegalArgumentException("Negative number not valid." + wordLimit);
         }
@@ -0,0 +1,41 @@
+package nlpidentification;
+
+/**
+ * The out-of-place distance between the bigram ranks of a training set and a test set.
+ * @author DominicWild
+ */
+public class RankDistance implements DistanceMetric {
+
+    private static final int MISSING_PENALTY = 1000;   //The distance added for a bigram that cannot be compared.
+
+    @Override
+    public double distance(DataSet trainSet, DataSet testSet) {
+        return outOfPlace(trainSet.getProfile(), testSet.getProfile());
+    }
+
+    /**
+     * Calculates the rank-order difference value between a training profile and a test profile.
+     * @param train The training profile to use in the distance value calculation.
+     * @param test The test profile to use in the distance value calculation.
+     * @return The distance value between these profiles.
+     */
+    public static int outOfPlace(PackedProfile train, PackedProfile test) {
+        int diff = 0;
+        int listSize = test.size();
+        if (listSize > train.size()) { //If the test set, is larger than the training set
+            listSize = train.size(); //Compare now only the training set number of elements
+            diff += MISSING_PENALTY * (test.size() - listSize); //Add the difference of things we couldn't compare to, to make a fair comparison.
+        }
+
+        int index = 0;
+        for (int i = 0; i < listSize; i++) {
+            index = train.rankOf(test.key(i));
+            if (index == -1 || index >= listSize) { //If invalid index, or beyond our limit of bigram values, add the penalty
+                diff += MISSING_PENALTY;
+            } else { //If valid, add the absolute difference
+                diff += Math.abs(i - index);
+            }
+        }
+        return diff;
+    }
+}
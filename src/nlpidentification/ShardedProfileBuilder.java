@@ -0,0 +1,218 @@
+package nlpidentification;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds the profile of a corpus across several processes. Each worker counts the lines starting within its share of the corpus's bytes and writes a partial profile into a shared directory, which a reducer merges into a ranked DataSet.
+ * Workers may run on any machine that can see the corpus and the shared directory.
+ * @author DominicWild
+ */
+public class ShardedProfileBuilder {
+
+    private static final long POLL_MILLIS = 100;    //How often the reducer checks for partial profiles.
+
+    /**
+     * Counts the lines of a corpus that start within one shard of its bytes. Shards split the corpus into equal byte ranges, a line belongs to the shard its first byte is in. Lines end at a line feed, a carriage return, or both, as for a BufferedReader.
+     * @param corpus The corpus file.
+     * @param shard The shard to count, from 0.
+     * @param shards The number of shards the corpus is split into.
+     * @return The partial profile of the shard.
+     * @throws IOException If the corpus could not be read.
+     */
+    public static PartialProfile countShard(Path corpus, int shard, int shards) throws IOException {
+        if (shard < 0 || shard >= shards) {
+            throw new IllegalArgumentException("Shard " + shard + " is not one of " + shards + " shards.");
+        }
+        BigramCounter counts = new BigramCounter();
+        int wordCount = 0;
+        int lineCount = 0;
+
+        try (FileChannel channel = FileChannel.open(corpus, StandardOpenOption.READ)) {
+            long start = channel.size() * shard / shards;
+            long end = channel.size() * (shard + 1) / shards;
+            long position = Math.max(start - 1, 0);
+            channel.position(position);
+            InputStream in = new BufferedInputStream(Channels.newInputStream(channel), 1 << 16);
+            if (start > 0) { //Skip the rest of a line started by the previous shard.
+                int b;
+                do {
+                    b = in.read();
+                    position++;
+                } while (b != -1 && b != '\n' && b != '\r');
+                if (b == '\r' && skipLineFeed(in)) {
+                    position++;
+                }
+            }
+
+            byte[] line = new byte[256];
+            Charset charset = Charset.defaultCharset(); //Matching the reader used for a DataSet.
+            BigramScanner scanner = new BigramScanner();
+            while (position < end) {
+                int length = 0;
+                int b;
+                while ((b = in.read()) != -1 && b != '\n' && b != '\r') {
+                    if (length == line.length) {
+                        line = Arrays.copyOf(line, length * 2);
+                    }
+                    line[length++] = (byte) b;
+                }
+                if (b == -1 && length == 0) {
+                    break;
+                }
+                position += length + (b == -1 ? 0 : 1);
+                if (b == '\r' && skipLineFeed(in)) {
+                    position++;
+                }
+                String text = new String(line, 0, length, charset);
+                wordCount += scanner.scan(text, Integer.MAX_VALUE, counts::add);
+                lineCount++;
+            }
+        }
+        return new PartialProfile(counts, wordCount, lineCount);
+    }
+
+    /**
+     * Consumes the line feed of a carriage return and line feed pair, lines ending as they do for a BufferedReader.
+     * @param in The stream, just past a carriage return.
+     * @return True if a line feed followed and was consumed.
+     * @throws IOException If the stream could not be read.
+     */
+    private static boolean skipLineFeed(InputStream in) throws IOException {
+        in.mark(1);
+        if (in.read() == '\n') {
+            return true;
+        }
+        in.reset();
+        return false;
+    }
+
+    /**
+     * Counts one shard of a corpus, writing its partial profile into the shared directory.
+     * @param corpus The corpus file.
+     * @param shard The shard to count, from 0.
+     * @param shards The number of shards the corpus is split into.
+     * @param sharedDir The directory partial profiles are exchanged through.
+     * @throws IOException If the corpus could not be read or the partial profile could not be written.
+     */
+    public static void runWorker(Path corpus, int shard, int shards, Path sharedDir) throws IOException {
+        countShard(corpus, shard, shards).write(partFile(sharedDir, shard, shards));
+    }
+
+    /**
+     * Merges the partial profiles of every shard into a ranked DataSet, waiting for workers that have not yet written theirs.
+     * @param corpus The corpus file the shards were counted from.
+     * @param lang The language of the corpus.
+     * @param shards The number of shards the corpus was split into.
+     * @param sharedDir The directory partial profiles are exchanged through.
+     * @param timeoutMillis How long to wait for every partial profile.
+     * @return The DataSet of the whole corpus.
+     * @throws IOException If a partial profile could not be read, or did not arrive in time.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public static DataSet reduce(Path corpus, Language lang, int shards, Path sharedDir, long timeoutMillis) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        ConcurrentDataSetAccumulator accumulator = new ConcurrentDataSetAccumulator(corpus.toString(), lang);
+
+        for (int shard = 0; shard < shards; shard++) {
+            Path part = partFile(sharedDir, shard, shards);
+            while (!Files.exists(part)) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Timed out waiting for " + part);
+                }
+                Thread.sleep(POLL_MILLIS);
+            }
+            accumulator.add(PartialProfile.read(part));
+        }
+        return accumulator.snapshot();
+    }
+
+    /**
+     * Builds the profile of a corpus within this process, counting each shard on a thread of its own and publishing its counts to a shared accumulator.
+     * @param corpus The corpus file.
+     * @param lang The language of the corpus.
+     * @param shards The number of threads.
+     * @return The DataSet of the whole corpus.
+     * @throws IOException If a shard could not be read.
+     * @throws InterruptedException If interrupted while waiting for the threads.
+     */
+    public static DataSet buildInThreads(Path corpus, Language lang, int shards) throws IOException, InterruptedException {
+        ConcurrentDataSetAccumulator accumulator = new ConcurrentDataSetAccumulator(corpus.toString(), lang);
+        ExecutorService counters = Executors.newFixedThreadPool(shards);
+        try {
+            List<Future<?>> counted = new ArrayList<>();
+            for (int shard = 0; shard < shards; shard++) {
+                int toCount = shard;
+                counted.add(counters.submit(() -> {
+                    accumulator.add(countShard(corpus, toCount, shards));
+                    return null;
+                }));
+            }
+            for (Future<?> shard : counted) {
+                shard.get();
+            }
+        } catch (ExecutionException ex) {
+            throw new IOException("Counting a shard of " + corpus + " failed.", ex.getCause());
+        } finally {
+            counters.shutdown();
+        }
+        return accumulator.snapshot();
+    }
+
+    /**
+     * Builds the profile of a corpus by running a worker process per shard on this machine, then merging their partial profiles.
+     * @param corpus The corpus file.
+     * @param lang The language of the corpus.
+     * @param shards The number of worker processes.
+     * @param sharedDir The directory partial profiles are exchanged through.
+     * @return The DataSet of the whole corpus.
+     * @throws IOException If a worker failed or a partial profile could not be read.
+     * @throws InterruptedException If interrupted while waiting for the workers.
+     */
+    public static DataSet buildLocally(Path corpus, Language lang, int shards, Path sharedDir) throws IOException, InterruptedException {
+        Files.createDirectories(sharedDir);
+        for (int shard = 0; shard < shards; shard++) { //Clear out the results of any earlier run.
+            Files.deleteIfExists(partFile(sharedDir, shard, shards));
+        }
+
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<Process> workers = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            workers.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), NLPIdentification.class.getName(),
+                    "shard-worker", corpus.toString(), Integer.toString(shard), Integer.toString(shards), sharedDir.toString())
+                    .inheritIO().start());
+        }
+        for (int shard = 0; shard < shards; shard++) {
+            if (workers.get(shard).waitFor() != 0) {
+                throw new IOException("Worker for shard " + shard + " failed.");
+            }
+        }
+        return reduce(corpus, lang, shards, sharedDir, 0);
+    }
+
+    /**
+     * The file a shard's partial profile is written to.
+     * @param sharedDir The directory partial profiles are exchanged through.
+     * @param shard The shard.
+     * @param shards The number of shards.
+     * @return The partial profile file.
+     */
+    private static Path partFile(Path sharedDir, int shard, int shards) {
+        return sharedDir.resolve("shard-" + shard + "-of-" + shards + ".part");
+    }
+}
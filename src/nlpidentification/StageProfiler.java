@@ -0,0 +1,205 @@
+package nlpidentification;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Accounts the heap allocated and garbage collection time of each stage of a run, to find which stage causes long collection pauses.
+ * Code enters a stage with a scope, closed when the stage ends. Allocation is measured by each thread's allocated bytes counter, charged only to the innermost stage the thread is in. Each collection is charged to every stage running on some thread when it ends.
+ * Profiling is off unless the nlpidentification.profile system property is true. A stage may be given a budget with the nlpidentification.budget.STAGE.bytes and nlpidentification.budget.STAGE.gcMillis properties, which fails the run when exceeded.
+ * @author DominicWild
+ */
+public class StageProfiler {
+
+    public static final boolean ENABLED = Boolean.getBoolean("nlpidentification.profile");  //Whether stages are profiled.
+    private static final String BUDGET_PROPERTY = "nlpidentification.budget.";                //The prefix of the budget properties.
+    private static final Map<Stage, StageTotals> TOTALS = new EnumMap<>(Stage.class);       //The totals of each stage.
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();                  //The innermost scope of each thread.
+    private static final ThreadMXBean THREADS = allocationCounter();                        //Counts the bytes allocated by each thread, null if not supported.
+    private static final Scope UNCOUNTED = new Scope(null);                                 //The scope entered when profiling is off, or the stage is already current.
+
+    /**
+     * The stages of a run.
+     */
+    public enum Stage {
+        INGESTION, CLEAN_SORT, DISTANCE, CSV_LOG
+    }
+
+    static {
+        for (Stage stage : Stage.values()) {
+            TOTALS.put(stage, new StageTotals());
+        }
+        if (ENABLED) {
+            listenForCollections();
+        }
+    }
+
+    /**
+     * Enters a stage on the current thread, pausing the accounting of the stage it is within until the scope closes.
+     * Entering the stage the thread is already in is not counted again.
+     * @param stage The stage entered.
+     * @return The scope to close when the stage ends.
+     */
+    public static Scope enter(Stage stage) {
+        if (!ENABLED) {
+            return UNCOUNTED;
+        }
+        Scope outer = CURRENT.get();
+        if (outer != null && outer.stage == stage) {
+            return UNCOUNTED;
+        }
+        long allocated = allocatedBytes();
+        if (outer != null) {
+            outer.charge(allocated);
+        }
+        Scope scope = new Scope(stage);
+        scope.outer = outer;
+        scope.allocatedFrom = allocated;
+        scope.startNanos = System.nanoTime();
+        TOTALS.get(stage).running.incrementAndGet();
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    /**
+     * Creates a report of the totals of each stage.
+     * @return The report, a line per stage.
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder(String.format("%-12s%10s%12s%16s%14s", "Stage", "Entries", "Time (ms)", "Allocated (MB)", "GC time (ms)"));
+        for (Stage stage : Stage.values()) {
+            StageTotals totals = TOTALS.get(stage);
+            report.append(System.lineSeparator()).append(String.format("%-12s%10d%12d%16s%14d", stage, totals.entries.sum(), totals.nanos.sum() / 1000000,
+                    THREADS == null ? "n/a" : Long.toString(totals.allocatedBytes.sum() >> 20), totals.gcMillis.sum()));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Checks each stage against its budget, if it was given one.
+     * @throws IllegalStateException If any stage exceeded its budget.
+     */
+    public static void checkBudgets() {
+        List<String> exceeded = new ArrayList<>();
+        for (Stage stage : Stage.values()) {
+            StageTotals totals = TOTALS.get(stage);
+            Long bytesBudget = Long.getLong(BUDGET_PROPERTY + stage + ".bytes");
+            Long gcBudget = Long.getLong(BUDGET_PROPERTY + stage + ".gcMillis");
+            if (bytesBudget != null && totals.allocatedBytes.sum() > bytesBudget) {
+                exceeded.add(stage + " allocated " + totals.allocatedBytes.sum() + " bytes, over its budget of " + bytesBudget);
+            }
+            if (gcBudget != null && totals.gcMillis.sum() > gcBudget) {
+                exceeded.add(stage + " spent " + totals.gcMillis.sum() + "ms in collections, over its budget of " + gcBudget);
+            }
+        }
+        if (!exceeded.isEmpty()) {
+            throw new IllegalStateException("Stage budgets exceeded: " + String.join("; ", exceeded));
+        }
+    }
+
+    /**
+     * The bytes allocated by the current thread so far.
+     * @return The allocated bytes, 0 if not supported.
+     */
+    private static long allocatedBytes() {
+        return THREADS == null ? 0 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Finds the counter of bytes allocated by each thread, enabling it if needed.
+     * @return The counter, null if the runtime has none.
+     */
+    private static ThreadMXBean allocationCounter() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!ENABLED || !(threads instanceof ThreadMXBean) || !((ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        ((ThreadMXBean) threads).setThreadAllocatedMemoryEnabled(true);
+        return (ThreadMXBean) threads;
+    }
+
+    /**
+     * Listens for the end of each garbage collection, charging its duration to every stage running at the time.
+     */
+    private static void listenForCollections() {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!(collector instanceof NotificationEmitter)) {
+                continue;
+            }
+            ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                    return;
+                }
+                long duration = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData()).getGcInfo().getDuration();
+                for (StageTotals totals : TOTALS.values()) {
+                    if (totals.running.get() > 0) {
+                        totals.gcMillis.add(duration);
+                    }
+                }
+            }, null, null);
+        }
+    }
+
+    /**
+     * A stage entered by a thread, closed when the stage ends.
+     */
+    public static class Scope implements AutoCloseable {
+
+        private final Stage stage;      //The stage entered, null if not counted.
+        private Scope outer;            //The scope this was entered within.
+        private long allocatedFrom;     //The thread's allocated bytes when this stage last resumed.
+        private long startNanos;        //When this stage was entered.
+
+        private Scope(Stage stage) {
+            this.stage = stage;
+        }
+
+        /**
+         * Charges the bytes allocated since this stage last resumed to it.
+         * @param allocated The thread's allocated bytes now.
+         */
+        private void charge(long allocated) {
+            TOTALS.get(this.stage).allocatedBytes.add(allocated - this.allocatedFrom);
+            this.allocatedFrom = allocated;
+        }
+
+        @Override
+        public void close() {
+            if (this.stage == null) {
+                return;
+            }
+            long allocated = allocatedBytes();
+            this.charge(allocated);
+            StageTotals totals = TOTALS.get(this.stage);
+            totals.nanos.add(System.nanoTime() - this.startNanos);
+            totals.entries.increment();
+            totals.running.decrementAndGet();
+            if (this.outer != null) {
+                this.outer.allocatedFrom = allocated; //The outer stage resumes.
+            }
+            CURRENT.set(this.outer);
+        }
+    }
+
+    /**
+     * The totals of a stage, summed over every thread.
+     */
+    private static class StageTotals {
+
+        private final LongAdder entries = new LongAdder();          //The number of times the stage was entered.
+        private final LongAdder nanos = new LongAdder();            //The time spent within the stage, nested stages included.
+        private final LongAdder allocatedBytes = new LongAdder();   //The bytes allocated within the stage, nested stages excluded.
+        private final LongAdder gcMillis = new LongAdder();         //The duration of collections ending while the stage ran.
+        private final AtomicInteger running = new AtomicInteger();  //The number of threads within the stage.
+    }
+}
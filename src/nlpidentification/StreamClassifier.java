@@ -0,0 +1,131 @@
+package nlpidentification;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Classifies a stream of newline delimited documents, such as a shell pipeline or a tailed log, writing the predicted language and distances of each document in the order they were read.
+ * Each document is classified in parallel as soon as it is read, its result queued for a writer that writes results in reading order. The queue is bounded, so a slow writer stops the reading rather than letting documents pile up in memory.
+ * @author DominicWild
+ */
+public class StreamClassifier {
+
+    private static final CompletableFuture<String> END = new CompletableFuture<>();    //Marks the end of the documents.
+    private final ClassificationCache cache;        //Classifies each document, reusing the results of repeated documents.
+    private final Supplier<DataSet[]> trainingSets; //Supplies the training sets shared, read only, by documents.
+    private final int maxInFlight;                  //The limit on documents read but not yet written.
+
+    /**
+     * Creates a stream classifier.
+     * @param cache Classifies each document, reusing the results of repeated documents.
+     * @param maxInFlight The limit on documents read but not yet written.
+     * @param trainingSets The training sets to classify documents against.
+     */
+    public StreamClassifier(ClassificationCache cache, int maxInFlight, DataSet... trainingSets) {
+        this(cache, maxInFlight, () -> trainingSets);
+    }
+
+    /**
+     * Creates a stream classifier whose training sets may change between documents, such as those of a ProfileStore.
+     * @param cache Classifies each document, reusing the results of repeated documents.
+     * @param maxInFlight The limit on documents read but not yet written.
+     * @param trainingSets Supplies the training sets to classify each document against.
+     */
+    public StreamClassifier(ClassificationCache cache, int maxInFlight, Supplier<DataSet[]> trainingSets) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("At least one document must be allowed in flight.");
+        }
+        this.cache = cache;
+        this.trainingSets = trainingSets;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Classifies every line of a reader as a document until it ends, writing a line per document of its predicted language followed by its distance from each training set, separated by tabs.
+     * @param in The reader of documents.
+     * @param out The writer of results.
+     * @return The number of documents classified.
+     * @throws IOException If the documents could not be read.
+     */
+    public int classifyStream(BufferedReader in, PrintWriter out) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            BlockingQueue<CompletableFuture<String>> pending = new ArrayBlockingQueue<>(this.maxInFlight);
+            CompletableFuture<Integer> written = new CompletableFuture<>();
+            Thread writer = new Thread(() -> written.complete(this.writeInOrder(pending, out)), "Writing classified documents");
+            writer.setDaemon(true);
+            writer.start();
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String document = line;
+                    pending.put(CompletableFuture.supplyAsync(() -> this.classify(document), workers)); //Blocks while the queue of results is full.
+                }
+            } finally {
+                pending.put(END); //Lets the writer finish, even if reading failed.
+            }
+            return written.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to classify documents.");
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * Classifies a single document.
+     * @param document The document.
+     * @return The result line of the document.
+     */
+    private String classify(String document) {
+        ArrayList<DistanceLabel> labels = this.cache.distanceLabels(document, this.trainingSets.get());
+        Language predicted = this.cache.getClassifier().classifyLanguage(new ArrayList<>(labels)); //Classifying removes from the labels it is given.
+
+        StringBuilder result = new StringBuilder(predicted == null ? "Unknown" : predicted.toString());
+        for (DistanceLabel label : labels) {
+            result.append('\t').append(label.getLang()).append('=').append(label.formatDistance());
+        }
+        return result.toString();
+    }
+
+    /**
+     * Writes each result in the order its document was read, waiting for it to be classified, until the end of the documents.
+     * @param pending The results of the documents not yet written, in the order they were read.
+     * @param out The writer of results.
+     * @return The number of results written.
+     */
+    private int writeInOrder(BlockingQueue<CompletableFuture<String>> pending, PrintWriter out) {
+        int written = 0;
+        try {
+            CompletableFuture<String> result;
+            while ((result = pending.take()) != END) {
+                try {
+                    out.println(result.join());
+                } catch (RuntimeException ex) {
+                    Logger.getLogger(StreamClassifier.class.getName()).log(Level.SEVERE, "Error classifying document " + written, ex);
+                    out.println("Unknown");
+                }
+                written++;
+                if (pending.isEmpty()) { //Flush whenever the writer catches up, so results are not held back waiting for more input.
+                    out.flush();
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        out.flush();
+        return written;
+    }
+}
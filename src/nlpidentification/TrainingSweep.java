@@ -0,0 +1,89 @@
+package nlpidentification;
+
+import java.io.IOException;
+
+/**
+ * Grows a single training profile over a corpus whose lines are shuffled once, for testing training sets of increasing size.
+ * Each step only counts the lines added since the last, so a full sweep is one pass over the corpus plus a ranked snapshot per step.
+ * @author DominicWild
+ */
+public class TrainingSweep {
+
+    private final String corpusFileName;        //The name of the corpus file swept over.
+    private final Language lang;                //The language of the corpus.
+    private final LineBigramCache lineCache;    //The counts of each line of the corpus.
+    private final int[] order;                  //The shuffled order lines are added in.
+    private final BigramCounter counter;        //The counts of every line added so far.
+    private final int totalWords;               //The number of words within the corpus.
+    private int nextLine;                       //The position within the order of the next line to add.
+    private int wordCount;                      //The number of words within the lines added so far.
+
+    /**
+     * Reads and shuffles the lines of a corpus.
+     * @param corpusFile The corpus file to sweep over.
+     * @param lang The language of the corpus.
+     * @throws IOException If the corpus could not be read.
+     */
+    public TrainingSweep(String corpusFile, Language lang) throws IOException {
+        this.corpusFileName = corpusFile;
+        this.lang = lang;
+        this.lineCache = new LineBigramCache(CorpusReader.readAllLines(corpusFile));
+        this.order = new int[this.lineCache.size()];
+        this.counter = new BigramCounter();
+        this.nextLine = 0;
+        this.wordCount = 0;
+
+        int words = 0;
+        for (int i = 0; i < this.order.length; i++) {
+            this.order[i] = i;
+            words += this.lineCache.words(i);
+        }
+        this.totalWords = words;
+        for (int i = this.order.length - 1; i > 0; i--) { //Shuffle once, every step takes the next lines of this order.
+            int swap = (int) ((i + 1) * Math.random());
+            int temp = this.order[i];
+            this.order[i] = this.order[swap];
+            this.order[swap] = temp;
+        }
+    }
+
+    /**
+     * Grows the profile to the passed number of words, creating a ranked snapshot of it.
+     * @param wordLimit The number of words the profile should hold, no less than the last step.
+     * @return The DataSet of the profile at this size.
+     */
+    @SuppressWarnings("try") //The scope only marks the stage.
+    public DataSet grow(int wordLimit) {
+        if (wordLimit < this.wordCount) {
+            throw new IllegalArgumentException("The profile can only grow, already holding " + this.wordCount + " words.");
+        }
+        BigramCounter snapshot;
+        int snapshotWords;
+        int snapshotLines;
+        try (StageProfiler.Scope stage = StageProfiler.enter(StageProfiler.Stage.INGESTION)) {
+            while (this.nextLine < this.order.length && this.wordCount + this.lineCache.words(this.order[this.nextLine]) <= wordLimit) {
+                this.lineCache.addTo(this.counter, this.order[this.nextLine]);
+                this.wordCount += this.lineCache.words(this.order[this.nextLine]);
+                this.nextLine++;
+            }
+
+            snapshot = this.counter.copy();
+            snapshotWords = this.wordCount;
+            snapshotLines = this.nextLine;
+            if (this.nextLine < this.order.length && this.wordCount < wordLimit) { //Take the words still needed from the start of the next line.
+                new BigramScanner().scan(this.lineCache.line(this.order[this.nextLine]), wordLimit - this.wordCount, snapshot::add);
+                snapshotWords = wordLimit;
+                snapshotLines++;
+            }
+        }
+        return new DataSet(this.corpusFileName, this.lang, snapshot, snapshotWords, snapshotLines);
+    }
+
+    /**
+     * The number of words within the corpus.
+     * @return The number of words.
+     */
+    public int getTotalWords() {
+        return this.totalWords;
+    }
+}